@@ -0,0 +1,99 @@
+package usr.skyswimmer.quickff.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import usr.skyswimmer.quickff.tools.entities.CloneStrategyConfig;
+import usr.skyswimmer.quickff.tools.loadtest.LocalRepositories;
+import usr.skyswimmer.quickff.tools.quickff.AncestryService;
+import usr.skyswimmer.quickff.tools.quickff.RepositoryFetcher;
+import usr.skyswimmer.quicktoolsutils.io.FileUtils;
+
+/**
+ *
+ * Benchmarks the ancestry checks done for each target branch, with and
+ * without a commit-graph
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AncestryBenchmark {
+
+	@Param({ "1000", "10000" })
+	public int commits;
+
+	@Param({ "false", "true" })
+	public boolean commitGraph;
+
+	private File baseDir;
+	private Git client;
+	private Repository repo;
+	private ObjectId tip;
+	private ObjectId target;
+
+	@Setup
+	public void setup() throws IOException {
+		baseDir = LocalRepositories.createTempDir("ancestry");
+		LocalRepositories.LocalRemote remote = LocalRepositories.create(new File(baseDir, "remote"), commits,
+				LocalRepositories.DEFAULT_CONFIG);
+
+		// Create cache
+		RepositoryFetcher fetcher = new RepositoryFetcher("benchmark/ancestry", new File(baseDir, "cache"),
+				new CloneStrategyConfig());
+		client = fetcher.open(remote.url);
+		fetcher.fetch(Arrays.asList("develop", "stable"), null);
+		repo = client.getRepository();
+		if (commitGraph) {
+			AncestryService.enableCommitGraph(repo);
+			AncestryService.writeCommitGraph(repo);
+		}
+
+		// Tips
+		tip = remote.history[commits - 1];
+		target = remote.history[commits / 2];
+	}
+
+	@TearDown
+	public void tearDown() {
+		client.close();
+		FileUtils.deleteDir(baseDir);
+	}
+
+	@Benchmark
+	public boolean fastForwardCheck() throws IOException {
+		// Same checks as a run does for one target
+		try (AncestryService ancestry = new AncestryService(repo)) {
+			return !ancestry.isAncestor(tip, target) && ancestry.isAncestor(target, tip);
+		}
+	}
+
+	@Benchmark
+	public boolean mergeBase() throws IOException {
+		try (AncestryService ancestry = new AncestryService(repo)) {
+			return ancestry.hasMergeBase(target, tip);
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+package usr.skyswimmer.quickff.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import usr.skyswimmer.quickff.tools.entities.AutoFfConfig;
+import usr.skyswimmer.quickff.tools.entities.BranchMatcherIndex;
+
+/**
+ *
+ * Benchmarks parsing autoff.json and matching branches against its branch
+ * sets
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConfigBenchmark {
+
+	@Param({ "4", "64", "512" })
+	public int rules;
+
+	private String configJson;
+	private AutoFfConfig config;
+
+	@Setup
+	public void setup() throws IOException {
+		// Mix of raw, regex and wildcard rules, the matched rules are last
+		StringBuilder branches = new StringBuilder();
+		for (int i = 0; i < rules; i++) {
+			if (i != 0)
+				branches.append(",");
+			switch (i % 3) {
+			case 0:
+				branches.append("\"RAW:release-" + i + "\":[\"stable-" + i + "\"]");
+				break;
+			case 1:
+				branches.append("\"RXM:hotfix-" + i + "-[0-9]+\":[\"stable-" + i + "\"]");
+				break;
+			default:
+				branches.append("\"WCM:feature-" + i + "/*\":[\"integration-" + i + "-{1}\"]");
+				break;
+			}
+		}
+		branches.append(",\"develop\":[\"experimental\",\"stable\"]");
+		branches.append(",\"RXM:bugfix/[a-z]+-[0-9]+\":[\"develop\"]");
+		branches.append(",\"WCM:team/*/*\":[\"integration/{1}\",\"staging/{2}\"]");
+		configJson = "{\"enabled\":true,\"branches\":{" + branches + "},\"hardMergeFor\":{\"develop\":[\"stable\"]}}";
+		config = parse();
+	}
+
+	@Benchmark
+	public AutoFfConfig parseConfig() throws IOException {
+		return parse();
+	}
+
+	@Benchmark
+	public BranchMatcherIndex.BranchMatch matchRaw() {
+		return config.matchers.match("develop");
+	}
+
+	@Benchmark
+	public BranchMatcherIndex.BranchMatch matchRegex() {
+		return config.matchers.match("bugfix/crash-1234");
+	}
+
+	@Benchmark
+	public BranchMatcherIndex.BranchMatch matchWildcard() {
+		return config.matchers.match("team/core/login");
+	}
+
+	@Benchmark
+	public BranchMatcherIndex.BranchMatch matchNone() {
+		return config.matchers.match("unrelated/branch");
+	}
+
+	private AutoFfConfig parse() throws IOException {
+		JsonObject json = JsonParser.parseString(configJson).getAsJsonObject();
+		AutoFfConfig res = new AutoFfConfig();
+		res.loadFromJson(json, "autoff.json");
+		return res;
+	}
+
+}
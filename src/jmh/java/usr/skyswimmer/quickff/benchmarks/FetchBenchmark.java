@@ -0,0 +1,99 @@
+package usr.skyswimmer.quickff.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import usr.skyswimmer.quickff.tools.entities.CloneStrategyConfig;
+import usr.skyswimmer.quickff.tools.loadtest.LocalRepositories;
+import usr.skyswimmer.quickff.tools.quickff.RepositoryFetcher;
+import usr.skyswimmer.quicktoolsutils.io.FileUtils;
+
+/**
+ *
+ * Benchmarks creating a repository cache from scratch against updating an
+ * existing cache
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class FetchBenchmark {
+
+	@Param({ "1000", "10000" })
+	public int commits;
+
+	@Param({ "0", "50" })
+	public int depth;
+
+	private File baseDir;
+	private LocalRepositories.LocalRemote remote;
+	private CloneStrategyConfig strategy;
+	private File warmCache;
+	private int coldCaches;
+
+	@Setup
+	public void setup() throws IOException {
+		baseDir = LocalRepositories.createTempDir("fetch");
+		remote = LocalRepositories.create(new File(baseDir, "remote"), commits, LocalRepositories.DEFAULT_CONFIG);
+		strategy = new CloneStrategyConfig();
+		strategy.depth = depth;
+
+		// Warm cache
+		warmCache = new File(baseDir, "warm");
+		fetch(warmCache);
+	}
+
+	@Setup(Level.Invocation)
+	public void advanceRemote() throws IOException {
+		// New commit on develop so the warm cache has something to fetch
+		LocalRepositories.appendCommit(remote, "develop", LocalRepositories.DEFAULT_CONFIG);
+	}
+
+	@TearDown
+	public void tearDown() {
+		FileUtils.deleteDir(baseDir);
+	}
+
+	@Benchmark
+	public void cloneFresh() throws IOException {
+		File cache = new File(baseDir, "cold-" + coldCaches++);
+		try {
+			fetch(cache);
+		} finally {
+			FileUtils.deleteDir(cache);
+		}
+	}
+
+	@Benchmark
+	public void fetchIncremental() throws IOException {
+		fetch(warmCache);
+	}
+
+	private void fetch(File cache) throws IOException {
+		RepositoryFetcher fetcher = new RepositoryFetcher("benchmark/fetch", cache, strategy);
+		try (Git client = fetcher.open(remote.url)) {
+			fetcher.fetch(Arrays.asList("develop", "experimental", "stable"), null);
+		}
+	}
+
+}
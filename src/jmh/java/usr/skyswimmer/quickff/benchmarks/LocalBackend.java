@@ -0,0 +1,41 @@
+package usr.skyswimmer.quickff.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+
+import com.google.gson.JsonObject;
+
+import usr.skyswimmer.githubwebhooks.apps.GithubApp;
+import usr.skyswimmer.quickff.tools.quickff.backend.IGithubBackend;
+
+/**
+ *
+ * Offline backend for benchmarks, API requests are counted and discarded
+ *
+ */
+public class LocalBackend implements IGithubBackend {
+
+	public AtomicInteger apiRequests = new AtomicInteger();
+
+	@Override
+	public CredentialsProvider getCredentials(GithubApp app, String installationId) throws IOException {
+		return new UsernamePasswordCredentialsProvider("x-access-token", "local");
+	}
+
+	@Override
+	public PersonIdent getBotIdentity(GithubApp app) throws IOException {
+		return new PersonIdent("quickff[bot]", "quickff[bot]@users.noreply.github.com");
+	}
+
+	@Override
+	public JsonObject installationApiRequest(GithubApp app, String installationId, String path, String method,
+			JsonObject payload) throws IOException {
+		apiRequests.incrementAndGet();
+		return new JsonObject();
+	}
+
+}
@@ -0,0 +1,85 @@
+package usr.skyswimmer.quickff.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import usr.skyswimmer.quickff.tools.entities.QuickFfServerConfig;
+import usr.skyswimmer.quickff.tools.entities.WebhookPushEventEntity;
+import usr.skyswimmer.quickff.tools.loadtest.LocalRepositories;
+import usr.skyswimmer.quickff.tools.quickff.QuickFfRunner;
+import usr.skyswimmer.quicktoolsutils.io.FileUtils;
+
+/**
+ *
+ * End-to-end benchmark of a run: a push to develop fast-forwards experimental
+ * and stable on a local remote, the remote is reset after each run
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class RunnerBenchmark {
+
+	@Param({ "1000", "10000" })
+	public int commits;
+
+	@Param({ "false", "true" })
+	public boolean atomicPush;
+
+	private File baseDir;
+	private LocalRepositories.LocalRemote remote;
+	private QuickFfServerConfig config;
+	private WebhookPushEventEntity push;
+	private ObjectId targetStart;
+
+	@Setup
+	public void setup() throws IOException {
+		baseDir = LocalRepositories.createTempDir("runner");
+		remote = LocalRepositories.create(new File(baseDir, "remote"), commits, LocalRepositories.DEFAULT_CONFIG);
+		targetStart = remote.history[commits / 2];
+		push = LocalRepositories.createPush(remote, "benchmark/runner-" + commits + "-" + atomicPush, "develop",
+				remote.history[commits - 2], remote.history[commits - 1]);
+
+		// Offline runner
+		config = new QuickFfServerConfig();
+		config.atomicPush = atomicPush;
+		config.journal.enabled = false;
+		QuickFfRunner.setBackend(new LocalBackend());
+	}
+
+	@Setup(Level.Invocation)
+	public void resetTargets() throws IOException {
+		LocalRepositories.setRef(remote, "experimental", targetStart);
+		LocalRepositories.setRef(remote, "stable", targetStart);
+	}
+
+	@TearDown
+	public void tearDown() {
+		FileUtils.deleteDir(baseDir);
+	}
+
+	@Benchmark
+	public boolean downloadAndRun() {
+		return QuickFfRunner.downloadAndRun(new File(baseDir, "server"), "develop", push, null, config);
+	}
+
+}
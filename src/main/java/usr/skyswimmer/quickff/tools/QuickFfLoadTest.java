@@ -0,0 +1,144 @@
+package usr.skyswimmer.quickff.tools;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import usr.skyswimmer.quickff.tools.entities.LoadTestConfig;
+import usr.skyswimmer.quickff.tools.loadtest.LoadGenerator;
+import usr.skyswimmer.quickff.tools.loadtest.LoadTestReport;
+import usr.skyswimmer.quickff.tools.loadtest.LocalRepositories;
+import usr.skyswimmer.quickff.tools.loadtest.MockGithubApi;
+import usr.skyswimmer.quickff.tools.loadtest.MockGithubBackend;
+import usr.skyswimmer.quickff.tools.loadtest.RuntimeSampler;
+import usr.skyswimmer.quickff.tools.quickff.QuickFfRunner;
+import usr.skyswimmer.quicktoolsutils.io.FileUtils;
+import usr.skyswimmer.quicktoolsutils.tasks.async.AsyncTaskManager;
+
+public class QuickFfLoadTest {
+
+	private static final long SERVER_START_TIMEOUT = 60 * 1000;
+
+	private static Logger logger;
+
+	public static void main(String[] args) throws IOException {
+		// Argument parsing
+		if (args.length == 0) {
+			System.err.println("Error: missing argument: load test configuration file");
+			System.exit(1);
+			return;
+		}
+		String configF = args[0];
+		File configFile = new File(configF);
+		if (!configFile.exists()) {
+			System.err.println("Error: invalid argument: load test configuration file: file does not exist");
+			System.exit(1);
+			return;
+		}
+
+		// Load settings
+		LoadTestConfig config = new LoadTestConfig();
+		try (FileReader reader = new FileReader(configFile)) {
+			config.loadFromJson(JsonParser.parseReader(reader).getAsJsonObject(), "loadtest");
+		} catch (Exception e) {
+			System.err.println("Error: invalid argument: load test configuration file: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+		if (!new File(config.serverConfig).exists()) {
+			System.err.println("Error: invalid load test configuration: server configuration file does not exist");
+			System.exit(1);
+			return;
+		}
+		logger = LogManager.getLogger("quickff");
+
+		// Create remotes
+		File workDir = new File(config.workDir);
+		File remotesDir = new File(workDir, "remotes");
+		FileUtils.deleteDir(remotesDir);
+		remotesDir.mkdirs();
+		logger.info("Creating " + config.repositories + " local repositories with " + config.commits
+				+ " commits...");
+		ArrayList<LocalRepositories.LocalRemote> remotes = new ArrayList<LocalRepositories.LocalRemote>();
+		ArrayList<String> names = new ArrayList<String>();
+		for (int i = 0; i < config.repositories; i++) {
+			remotes.add(LocalRepositories.create(new File(remotesDir, "repo-" + i + ".git"), config.commits,
+					LocalRepositories.DEFAULT_CONFIG));
+			names.add("loadtest/repo-" + i);
+		}
+
+		// Start mock API and point the runner at it
+		MockGithubApi api = new MockGithubApi(config.apiPort, config.apiLatencyMs);
+		api.start();
+		QuickFfRunner.setBackend(new MockGithubBackend(api.getUrl()));
+
+		// Start server in-process
+		logger.info("Starting QuickFF server with " + config.serverConfig + "...");
+		AsyncTaskManager.runAsync(() -> {
+			try {
+				QuickFfServer.main(new String[] { config.serverConfig });
+			} catch (IOException e) {
+				logger.error("QuickFF server failed", e);
+			}
+		});
+		if (!waitForServer(URI.create(config.webhookUrl))) {
+			logger.error("QuickFF server did not start listening on " + config.webhookUrl + " within "
+					+ (SERVER_START_TIMEOUT / 1000) + " seconds");
+			System.exit(1);
+			return;
+		}
+
+		// Run
+		RuntimeSampler sampler = new RuntimeSampler(100);
+		sampler.start();
+		LoadTestReport report = new LoadGenerator(config, remotes, names).run();
+		sampler.stop(report);
+		report.apiRequests = api.getRequestCounts();
+		api.stop();
+
+		// Report
+		report.log(logger);
+		if (config.reportFile != null) {
+			JsonObject json = report.toJson();
+			Files.writeString(new File(config.reportFile).toPath(),
+					new GsonBuilder().setPrettyPrinting().create().toJson(json));
+			logger.info("Report written to " + config.reportFile);
+		}
+
+		// Done, the in-process server does not exit on its own
+		System.exit(0);
+	}
+
+	private static boolean waitForServer(URI webhookUrl) {
+		int port = webhookUrl.getPort();
+		if (port == -1)
+			port = webhookUrl.getScheme().equals("https") ? 443 : 80;
+		long deadline = System.currentTimeMillis() + SERVER_START_TIMEOUT;
+		while (System.currentTimeMillis() < deadline) {
+			try (Socket sock = new Socket()) {
+				sock.connect(new InetSocketAddress(webhookUrl.getHost(), port), 1000);
+				return true;
+			} catch (IOException e) {
+				try {
+					Thread.sleep(250);
+				} catch (InterruptedException e2) {
+					return false;
+				}
+			}
+		}
+		return false;
+	}
+
+}
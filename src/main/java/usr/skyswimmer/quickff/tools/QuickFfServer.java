@@ -1,6 +1,7 @@
 package usr.skyswimmer.quickff.tools;
 
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
 
 import org.apache.logging.log4j.LogManager;
@@ -8,12 +9,17 @@ import org.apache.logging.log4j.Logger;
 import org.asf.connective.lambda.LambdaPushContext;
 
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
 import usr.skyswimmer.githubwebhooks.apps.GithubApp;
 import usr.skyswimmer.githubwebhooks.server.GithubWebhookEventServer;
+import usr.skyswimmer.quickff.tools.entities.QuickFfServerConfig;
 import usr.skyswimmer.quickff.tools.entities.WebhookPushEventEntity;
+import usr.skyswimmer.quickff.tools.quickff.PushFilter;
+import usr.skyswimmer.quickff.tools.quickff.QuickFfDispatcher;
 import usr.skyswimmer.quickff.tools.quickff.QuickFfRunner;
-import usr.skyswimmer.quicktoolsutils.tasks.async.AsyncTaskManager;
+import usr.skyswimmer.quickff.tools.quickff.StatusServer;
+import usr.skyswimmer.quickff.tools.quickff.cluster.ClusterCoordinator;
 
 public class QuickFfServer {
 
@@ -38,6 +44,24 @@ public class QuickFfServer {
 		GithubWebhookEventServer server = new GithubWebhookEventServer(configFile, "quickff");
 		logger = LogManager.getLogger("quickff");
 
+		// Load QuickFF settings
+		QuickFfServerConfig quickFfConfig = new QuickFfServerConfig();
+		try (FileReader reader = new FileReader(configFile)) {
+			JsonObject configJson = JsonParser.parseReader(reader).getAsJsonObject();
+			if (configJson.has("quickff"))
+				quickFfConfig.loadFromJson(configJson.get("quickff").getAsJsonObject(), "quickff");
+		} catch (Exception e) {
+			System.err.println("Error: invalid argument: configuration file: could not load quickff settings: "
+					+ e.getMessage());
+			System.exit(1);
+			return;
+		}
+		QuickFfDispatcher dispatcher = new QuickFfDispatcher(quickFfConfig);
+		StatusServer statusServer = new StatusServer(quickFfConfig.status, dispatcher);
+		ClusterCoordinator cluster = quickFfConfig.cluster.enabled
+				? new ClusterCoordinator(quickFfConfig.cluster, dispatcher)
+				: null;
+
 		// Handler
 		server.onWebhookActivate().addEventHandler(event -> {
 			// Received event
@@ -64,6 +88,16 @@ public class QuickFfServer {
 					return;
 				}
 
+				// Ignore anything but branch pushes before parsing the full event
+				if (!hookData.has("ref") || !hookData.get("ref").isJsonPrimitive()) {
+					logger.error("Webhook request " + req.getRequestMethod() + " " + req.getRequestPath()
+							+ " used a malformed json for PUSH event: missing ref");
+					req.setResponseStatus(400, "Bad request");
+					return;
+				}
+				if (!hookData.get("ref").getAsString().startsWith("refs/heads/"))
+					return;
+
 				// Read entity
 				WebhookPushEventEntity push = new WebhookPushEventEntity();
 				try {
@@ -75,21 +109,53 @@ public class QuickFfServer {
 					return;
 				}
 
-				// Check if branch
-				if (push.ref.startsWith("refs/heads/")) {
-					// Get branch
-					String targetBranch = push.ref.substring("refs/heads/".length());
+				// Get branch
+				String targetBranch = push.ref.substring("refs/heads/".length());
+
+				// Drop pushes that cannot lead to a fast-forward
+				String dropReason = QuickFfRunner.getPushFilter().check(targetBranch, push,
+						PushFilter.mayChangeConfig(hookData));
+				if (dropReason != null) {
+					logger.info("[" + push.repository.fullName + "] Ignored push to " + targetBranch + ": "
+							+ dropReason);
+					return;
+				}
 
-					// Success, call quickff runner
-					AsyncTaskManager.runAsync(() -> {
-						QuickFfRunner.downloadAndRun(server.getWorkingDir(), targetBranch, push, app);
-					});
+				// Hand pushes for repositories owned by another node to that node
+				if (cluster != null) {
+					JsonObject forwarded = cluster.forward(app.getId(), targetBranch, push);
+					if (forwarded != null) {
+						req.setResponseStatus(202, "Accepted");
+						req.setResponseContent("application/json", forwarded.toString());
+						return;
+					}
 				}
+
+				// Success, queue quickff runner and acknowledge
+				String jobId = dispatcher.dispatch(server.getWorkingDir(), targetBranch, push, app);
+				JsonObject response = new JsonObject();
+				response.addProperty("job", jobId);
+				req.setResponseStatus(202, "Accepted");
+				req.setResponseContent("application/json", response.toString());
 			}
 		});
 
 		// Init
 		server.initServer();
+		if (cluster != null) {
+			try {
+				cluster.start(server.getWorkingDir());
+				QuickFfRunner.setWarmCacheSource(cluster);
+			} catch (IOException e) {
+				logger.error("Failed to join cluster, running as a standalone node", e);
+			}
+		}
+		dispatcher.start(server.getWorkingDir());
+		try {
+			statusServer.start();
+		} catch (IOException e) {
+			logger.error("Failed to start status endpoint", e);
+		}
 
 		// Start
 		server.start();
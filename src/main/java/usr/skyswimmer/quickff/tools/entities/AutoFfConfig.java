@@ -17,6 +17,7 @@ public class AutoFfConfig implements ISerializedJsonEntity {
 	public boolean enabled = false;
 	public HashMap<String, String[]> branches = new LinkedHashMap<String, String[]>();
 	public HashMap<String, String[]> hardMergeFor = new LinkedHashMap<String, String[]>();
+	public BranchMatcherIndex matchers;
 
 	@Override
 	public void loadFromJson(JsonObject source, String scope) throws IOException {
@@ -44,6 +45,8 @@ public class AutoFfConfig implements ISerializedJsonEntity {
 				hardMergeFor.put(key, branchTargets.toArray(t -> new String[t]));
 			}
 		}
+
+		matchers = BranchMatcherIndex.compile(branches, hardMergeFor, scope);
 	}
 
 }
@@ -0,0 +1,194 @@
+package usr.skyswimmer.quickff.tools.entities;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import usr.skyswimmer.quicktoolsutils.patterns.PatternMatchResult;
+import usr.skyswimmer.quicktoolsutils.patterns.WildcardPatternMatcher;
+
+/**
+ *
+ * Precompiled index of the branch sets of an autoff.json configuration, raw
+ * branch names are resolved through a hash lookup and regex and wildcard
+ * patterns are compiled once
+ *
+ */
+public class BranchMatcherIndex {
+
+	private static final Pattern PARAMETER_PATTERN = Pattern.compile("\\{([1-9][0-9]{0,8})\\}");
+
+	private HashMap<String, BranchRule> rawRules = new HashMap<String, BranchRule>();
+	private ArrayList<BranchRule> patternRules = new ArrayList<BranchRule>();
+
+	public static class BranchRule {
+		public int order;
+		public String key;
+		public String pattern;
+		public String[] targets;
+
+		private Pattern regex;
+		private WildcardPatternMatcher wildcard;
+		private TargetTemplate[] templates;
+		private HashSet<String> hardMergeTargets = new HashSet<String>();
+	}
+
+	public static class BranchMatch {
+		public BranchRule rule;
+		public String[] targets;
+
+		/**
+		 * Checks if a target needs to be hard-merged if it cannot be fast-forwarded
+		 *
+		 * @param index Target index
+		 * @return True if hard merging is configured for the target, false otherwise
+		 */
+		public boolean isHardMergeTarget(int index) {
+			return rule.hardMergeTargets.contains(rule.targets[index]);
+		}
+	}
+
+	private static class TargetTemplate {
+		// Literal segments with parameter indices between them
+		public String[] literals;
+		public int[] parameters;
+
+		public String resolve(String[] values) {
+			if (parameters.length == 0)
+				return literals[0];
+			StringBuilder res = new StringBuilder(literals[0]);
+			for (int i = 0; i < parameters.length; i++) {
+				int param = parameters[i];
+				if (param >= 1 && param <= values.length)
+					res.append(values[param - 1]);
+				else
+					res.append("{" + param + "}");
+				res.append(literals[i + 1]);
+			}
+			return res.toString();
+		}
+	}
+
+	/**
+	 * Compiles the branch sets of a configuration
+	 *
+	 * @param branches     Branch sets by pattern
+	 * @param hardMergeFor Hard merge targets by pattern
+	 * @param scope        Configuration scope for error messages
+	 * @return BranchMatcherIndex instance
+	 * @throws IOException If a pattern is invalid
+	 */
+	public static BranchMatcherIndex compile(Map<String, String[]> branches, Map<String, String[]> hardMergeFor,
+			String scope) throws IOException {
+		BranchMatcherIndex index = new BranchMatcherIndex();
+		int order = 0;
+		for (String key : branches.keySet()) {
+			BranchRule rule = new BranchRule();
+			rule.order = order++;
+			rule.key = key;
+			rule.targets = branches.get(key);
+
+			// Compile pattern
+			String pattern = key;
+			if (pattern.startsWith("RXM:")) {
+				// Regex matcher
+				pattern = pattern.substring("RXM:".length());
+				try {
+					rule.regex = Pattern.compile(pattern);
+				} catch (PatternSyntaxException e) {
+					throw new IOException(
+							"Invalid regex in " + scope + " -> branches -> " + key + ": " + e.getDescription());
+				}
+				index.patternRules.add(rule);
+			} else if (pattern.startsWith("WCM:") || (!pattern.startsWith("RAW:") && pattern.contains("*"))) {
+				// Wildcard matcher
+				if (pattern.startsWith("WCM:"))
+					pattern = pattern.substring("WCM:".length());
+				rule.wildcard = new WildcardPatternMatcher(pattern);
+				index.patternRules.add(rule);
+			} else {
+				// Raw, first entry wins
+				if (pattern.startsWith("RAW:"))
+					pattern = pattern.substring("RAW:".length());
+				index.rawRules.putIfAbsent(pattern.toLowerCase(Locale.ROOT), rule);
+			}
+			rule.pattern = pattern;
+
+			// Compile targets
+			rule.templates = new TargetTemplate[rule.targets.length];
+			for (int i = 0; i < rule.targets.length; i++)
+				rule.templates[i] = compileTemplate(rule.targets[i]);
+			if (hardMergeFor.containsKey(pattern)) {
+				for (String target : hardMergeFor.get(pattern))
+					rule.hardMergeTargets.add(target);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Finds the first branch set matching a branch
+	 *
+	 * @param branch Branch name
+	 * @return BranchMatch instance or null if no set matched
+	 */
+	public BranchMatch match(String branch) {
+		// Raw lookup
+		BranchRule selected = rawRules.get(branch.toLowerCase(Locale.ROOT));
+		String[] parameters = new String[0];
+
+		// Patterns declared before the raw entry take precedence
+		for (BranchRule rule : patternRules) {
+			if (selected != null && rule.order > selected.order)
+				break;
+			if (rule.regex != null) {
+				if (rule.regex.matcher(branch).matches()) {
+					selected = rule;
+					parameters = new String[0];
+					break;
+				}
+			} else {
+				PatternMatchResult res = rule.wildcard.match(branch);
+				if (res.isMatch()) {
+					selected = rule;
+					parameters = res.getParameters();
+					break;
+				}
+			}
+		}
+		if (selected == null)
+			return null;
+
+		// Resolve targets
+		BranchMatch match = new BranchMatch();
+		match.rule = selected;
+		match.targets = new String[selected.templates.length];
+		for (int i = 0; i < match.targets.length; i++)
+			match.targets[i] = selected.templates[i].resolve(parameters);
+		return match;
+	}
+
+	private static TargetTemplate compileTemplate(String target) {
+		ArrayList<String> literals = new ArrayList<String>();
+		ArrayList<Integer> parameters = new ArrayList<Integer>();
+		Matcher m = PARAMETER_PATTERN.matcher(target);
+		int last = 0;
+		while (m.find()) {
+			literals.add(target.substring(last, m.start()));
+			parameters.add(Integer.parseInt(m.group(1)));
+			last = m.end();
+		}
+		literals.add(target.substring(last));
+		TargetTemplate template = new TargetTemplate();
+		template.literals = literals.toArray(t -> new String[t]);
+		template.parameters = parameters.stream().mapToInt(t -> t).toArray();
+		return template;
+	}
+
+}
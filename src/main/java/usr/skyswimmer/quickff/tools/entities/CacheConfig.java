@@ -0,0 +1,54 @@
+package usr.skyswimmer.quickff.tools.entities;
+
+import java.io.IOException;
+import java.util.HashSet;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import usr.skyswimmer.quicktoolsutils.json.ISerializedJsonEntity;
+import usr.skyswimmer.quicktoolsutils.json.JsonUtils;
+
+public class CacheConfig implements ISerializedJsonEntity {
+
+	// Idle time before a repository is evicted, 0 to only evict by disk usage
+	public long maxIdleMinutes = 60;
+
+	// Disk budget of all caches together, 0 for unlimited
+	public long maxDiskUsageMb = 0;
+
+	// Share fetched objects between a repository and its forks through git alternates
+	public boolean objectPools = false;
+
+	public String evictionPolicy = "lru";
+	public HashSet<String> pinned = new HashSet<String>();
+
+	@Override
+	public void loadFromJson(JsonObject source, String scope) throws IOException {
+		if (source.has("maxIdleMinutes")) {
+			maxIdleMinutes = JsonUtils.getElementOrError(scope, source, "maxIdleMinutes").getAsLong();
+			if (maxIdleMinutes < 0)
+				throw new IOException("Invalid value for " + scope + " -> maxIdleMinutes: must not be negative");
+		}
+		if (source.has("maxDiskUsageMb")) {
+			maxDiskUsageMb = JsonUtils.getElementOrError(scope, source, "maxDiskUsageMb").getAsLong();
+			if (maxDiskUsageMb < 0)
+				throw new IOException("Invalid value for " + scope + " -> maxDiskUsageMb: must not be negative");
+		}
+		if (source.has("objectPools"))
+			objectPools = JsonUtils.getBooleanOrError(scope, source, "objectPools");
+		if (source.has("evictionPolicy")) {
+			evictionPolicy = JsonUtils.getStringOrError(scope + " -> evictionPolicy", source.get("evictionPolicy"));
+			if (!evictionPolicy.equalsIgnoreCase("lru") && !evictionPolicy.equalsIgnoreCase("lfu"))
+				throw new IOException("Invalid value for " + scope + " -> evictionPolicy: expected lru or lfu");
+		}
+		if (source.has("pinned")) {
+			JsonArray arr = JsonUtils.getArrayOrError(scope + " -> pinned", source.get("pinned"));
+			for (JsonElement ele : arr) {
+				pinned.add(JsonUtils.getStringOrError(scope + " -> pinned", ele));
+			}
+		}
+	}
+
+}
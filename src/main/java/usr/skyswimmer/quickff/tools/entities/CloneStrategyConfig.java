@@ -0,0 +1,73 @@
+package usr.skyswimmer.quickff.tools.entities;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import org.eclipse.jgit.errors.PackProtocolException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.transport.FilterSpec;
+
+import com.google.gson.JsonObject;
+
+import usr.skyswimmer.quicktoolsutils.json.ISerializedJsonEntity;
+import usr.skyswimmer.quicktoolsutils.json.JsonUtils;
+
+public class CloneStrategyConfig implements ISerializedJsonEntity {
+
+	// JGit cannot fetch omitted objects on demand, configuration files and merged files need to be present
+	private static final long MIN_BLOB_LIMIT = 1024 * 1024;
+
+	public boolean bare = true;
+
+	// Depth of the first fetch of each branch, 0 for full history
+	public int depth = 0;
+
+	// Partial clone filter, only blob:limit of at least 1m is supported (eg. blob:limit=4m), null for no filter
+	public String filter;
+
+	@Override
+	public void loadFromJson(JsonObject source, String scope) throws IOException {
+		if (source.has("bare"))
+			bare = JsonUtils.getBooleanOrError(scope, source, "bare");
+		if (source.has("depth")) {
+			depth = JsonUtils.getElementOrError(scope, source, "depth").getAsInt();
+			if (depth < 0)
+				throw new IOException("Invalid value for " + scope + " -> depth: must not be negative");
+		}
+		if (source.has("filter")) {
+			filter = JsonUtils.stringOrNull(JsonUtils.getElementOrError(scope, source, "filter"));
+			if (filter != null) {
+				FilterSpec spec;
+				try {
+					spec = FilterSpec.fromFilterLine(expandSizeSuffix(filter));
+				} catch (PackProtocolException | NumberFormatException | ArithmeticException e) {
+					throw new IOException("Invalid value for " + scope + " -> filter: " + e.getMessage());
+				}
+				if (!spec.allowsType(Constants.OBJ_BLOB) || !spec.allowsType(Constants.OBJ_TREE)
+						|| spec.getTreeDepthLimit() >= 0
+						|| (spec.getBlobLimit() >= 0 && spec.getBlobLimit() < MIN_BLOB_LIMIT))
+					throw new IOException("Invalid value for " + scope
+							+ " -> filter: only blob:limit filters of at least 1m are supported, omitted objects cannot be fetched on demand");
+				filter = spec.filterLine();
+			}
+		}
+	}
+
+	private static String expandSizeSuffix(String filter) {
+		// JGit only accepts byte counts, git also accepts k, m and g suffixes
+		if (!filter.startsWith("blob:limit="))
+			return filter;
+		String size = filter.substring("blob:limit=".length()).toLowerCase(Locale.ROOT);
+		long unit = 1;
+		if (size.endsWith("k"))
+			unit = 1024;
+		else if (size.endsWith("m"))
+			unit = 1024 * 1024;
+		else if (size.endsWith("g"))
+			unit = 1024 * 1024 * 1024;
+		if (unit != 1)
+			size = size.substring(0, size.length() - 1);
+		return "blob:limit=" + Math.multiplyExact(Long.parseLong(size), unit);
+	}
+
+}
@@ -0,0 +1,82 @@
+package usr.skyswimmer.quickff.tools.entities;
+
+import java.io.IOException;
+
+import com.google.gson.JsonObject;
+
+import usr.skyswimmer.quicktoolsutils.json.ISerializedJsonEntity;
+import usr.skyswimmer.quicktoolsutils.json.JsonUtils;
+
+public class ClusterConfig implements ISerializedJsonEntity {
+
+	public boolean enabled = false;
+
+	// Unique name of this node and the coordination directory shared by all nodes
+	public String nodeId;
+	public String directory;
+
+	// Cluster listener, receives events forwarded by other nodes
+	public String address = "127.0.0.1";
+	public int port;
+
+	// URL other nodes use to reach the cluster listener, defaults to address and port
+	public String advertiseUrl;
+
+	// Shared secret used to sign forwarded events
+	public String secret;
+
+	public long heartbeatIntervalMs = 2000;
+	public long nodeTimeoutMs = 10000;
+	public long forwardTimeoutMs = 5000;
+
+	// Points each node occupies on the hash ring
+	public int virtualNodes = 64;
+
+	@Override
+	public void loadFromJson(JsonObject source, String scope) throws IOException {
+		if (source.has("enabled"))
+			enabled = JsonUtils.getBooleanOrError(scope, source, "enabled");
+		if (!enabled)
+			return;
+		nodeId = JsonUtils.getStringOrError(scope + " -> nodeId", JsonUtils.getElementOrError(scope, source, "nodeId"));
+		if (!nodeId.matches("^[A-Za-z0-9_.-]+$"))
+			throw new IOException("Invalid value for " + scope
+					+ " -> nodeId: may only contain letters, digits, dots, dashes and underscores");
+		directory = JsonUtils.getStringOrError(scope + " -> directory",
+				JsonUtils.getElementOrError(scope, source, "directory"));
+		secret = JsonUtils.getStringOrError(scope + " -> secret", JsonUtils.getElementOrError(scope, source, "secret"));
+		port = JsonUtils.getElementOrError(scope, source, "port").getAsInt();
+		if (port < 1 || port > 65535)
+			throw new IOException("Invalid value for " + scope + " -> port: must be between 1 and 65535");
+		if (source.has("address"))
+			address = JsonUtils.getStringOrError(scope + " -> address", source.get("address"));
+		if (source.has("advertiseUrl")) {
+			advertiseUrl = JsonUtils.getStringOrError(scope + " -> advertiseUrl", source.get("advertiseUrl"));
+			while (advertiseUrl.endsWith("/"))
+				advertiseUrl = advertiseUrl.substring(0, advertiseUrl.length() - 1);
+		} else
+			advertiseUrl = "http://" + address + ":" + port;
+		if (source.has("heartbeatIntervalMs")) {
+			heartbeatIntervalMs = JsonUtils.getElementOrError(scope, source, "heartbeatIntervalMs").getAsLong();
+			if (heartbeatIntervalMs < 100)
+				throw new IOException("Invalid value for " + scope + " -> heartbeatIntervalMs: must be at least 100");
+		}
+		if (source.has("nodeTimeoutMs")) {
+			nodeTimeoutMs = JsonUtils.getElementOrError(scope, source, "nodeTimeoutMs").getAsLong();
+			if (nodeTimeoutMs <= heartbeatIntervalMs)
+				throw new IOException(
+						"Invalid value for " + scope + " -> nodeTimeoutMs: must be above heartbeatIntervalMs");
+		}
+		if (source.has("forwardTimeoutMs")) {
+			forwardTimeoutMs = JsonUtils.getElementOrError(scope, source, "forwardTimeoutMs").getAsLong();
+			if (forwardTimeoutMs < 1)
+				throw new IOException("Invalid value for " + scope + " -> forwardTimeoutMs: must be at least 1");
+		}
+		if (source.has("virtualNodes")) {
+			virtualNodes = JsonUtils.getElementOrError(scope, source, "virtualNodes").getAsInt();
+			if (virtualNodes < 1 || virtualNodes > 4096)
+				throw new IOException("Invalid value for " + scope + " -> virtualNodes: must be between 1 and 4096");
+		}
+	}
+
+}
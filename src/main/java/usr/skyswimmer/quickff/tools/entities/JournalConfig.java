@@ -0,0 +1,36 @@
+package usr.skyswimmer.quickff.tools.entities;
+
+import java.io.IOException;
+
+import com.google.gson.JsonObject;
+
+import usr.skyswimmer.quicktoolsutils.json.ISerializedJsonEntity;
+import usr.skyswimmer.quicktoolsutils.json.JsonUtils;
+
+public class JournalConfig implements ISerializedJsonEntity {
+
+	public boolean enabled = true;
+
+	// Time writes are grouped before the journal is synced to disk
+	public long syncIntervalMs = 50;
+
+	// Initial size of the journal file, grows when needed
+	public long initialSizeMb = 8;
+
+	@Override
+	public void loadFromJson(JsonObject source, String scope) throws IOException {
+		if (source.has("enabled"))
+			enabled = JsonUtils.getBooleanOrError(scope, source, "enabled");
+		if (source.has("syncIntervalMs")) {
+			syncIntervalMs = JsonUtils.getElementOrError(scope, source, "syncIntervalMs").getAsLong();
+			if (syncIntervalMs < 0)
+				throw new IOException("Invalid value for " + scope + " -> syncIntervalMs: must not be negative");
+		}
+		if (source.has("initialSizeMb")) {
+			initialSizeMb = JsonUtils.getElementOrError(scope, source, "initialSizeMb").getAsLong();
+			if (initialSizeMb < 1 || initialSizeMb > 1024)
+				throw new IOException("Invalid value for " + scope + " -> initialSizeMb: must be between 1 and 1024");
+		}
+	}
+
+}
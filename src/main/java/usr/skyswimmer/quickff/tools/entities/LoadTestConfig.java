@@ -0,0 +1,89 @@
+package usr.skyswimmer.quickff.tools.entities;
+
+import java.io.IOException;
+
+import com.google.gson.JsonObject;
+
+import usr.skyswimmer.quicktoolsutils.json.ISerializedJsonEntity;
+import usr.skyswimmer.quicktoolsutils.json.JsonUtils;
+
+public class LoadTestConfig implements ISerializedJsonEntity {
+
+	// QuickFF server configuration to run in-process and its webhook endpoint
+	public String serverConfig;
+	public String webhookUrl;
+	public String webhookSecret;
+
+	// Generated repositories
+	public String workDir = "loadtest";
+	public int repositories = 4;
+	public int commits = 1000;
+
+	// Load, pushes per second spread round-robin over the repositories
+	public double rate = 5;
+	public int warmupSeconds = 10;
+	public int durationSeconds = 60;
+	public int drainSeconds = 60;
+
+	// Local GitHub API stand-in
+	public int apiPort = 0;
+	public int apiLatencyMs = 0;
+
+	// Optional JSON report output
+	public String reportFile;
+
+	@Override
+	public void loadFromJson(JsonObject source, String scope) throws IOException {
+		serverConfig = JsonUtils.getStringOrError(scope + " -> serverConfig",
+				JsonUtils.getElementOrError(scope, source, "serverConfig"));
+		webhookUrl = JsonUtils.getStringOrError(scope + " -> webhookUrl",
+				JsonUtils.getElementOrError(scope, source, "webhookUrl"));
+		webhookSecret = JsonUtils.getStringOrError(scope + " -> webhookSecret",
+				JsonUtils.getElementOrError(scope, source, "webhookSecret"));
+		if (source.has("workDir"))
+			workDir = JsonUtils.getStringOrError(scope + " -> workDir", source.get("workDir"));
+		if (source.has("repositories")) {
+			repositories = JsonUtils.getElementOrError(scope, source, "repositories").getAsInt();
+			if (repositories < 1)
+				throw new IOException("Invalid value for " + scope + " -> repositories: must be at least 1");
+		}
+		if (source.has("commits")) {
+			commits = JsonUtils.getElementOrError(scope, source, "commits").getAsInt();
+			if (commits < 2)
+				throw new IOException("Invalid value for " + scope + " -> commits: must be at least 2");
+		}
+		if (source.has("rate")) {
+			rate = JsonUtils.getElementOrError(scope, source, "rate").getAsDouble();
+			if (rate <= 0)
+				throw new IOException("Invalid value for " + scope + " -> rate: must be above 0");
+		}
+		if (source.has("warmupSeconds")) {
+			warmupSeconds = JsonUtils.getElementOrError(scope, source, "warmupSeconds").getAsInt();
+			if (warmupSeconds < 0)
+				throw new IOException("Invalid value for " + scope + " -> warmupSeconds: must not be negative");
+		}
+		if (source.has("durationSeconds")) {
+			durationSeconds = JsonUtils.getElementOrError(scope, source, "durationSeconds").getAsInt();
+			if (durationSeconds < 1)
+				throw new IOException("Invalid value for " + scope + " -> durationSeconds: must be at least 1");
+		}
+		if (source.has("drainSeconds")) {
+			drainSeconds = JsonUtils.getElementOrError(scope, source, "drainSeconds").getAsInt();
+			if (drainSeconds < 0)
+				throw new IOException("Invalid value for " + scope + " -> drainSeconds: must not be negative");
+		}
+		if (source.has("apiPort")) {
+			apiPort = JsonUtils.getElementOrError(scope, source, "apiPort").getAsInt();
+			if (apiPort < 0 || apiPort > 65535)
+				throw new IOException("Invalid value for " + scope + " -> apiPort: must be between 0 and 65535");
+		}
+		if (source.has("apiLatencyMs")) {
+			apiLatencyMs = JsonUtils.getElementOrError(scope, source, "apiLatencyMs").getAsInt();
+			if (apiLatencyMs < 0)
+				throw new IOException("Invalid value for " + scope + " -> apiLatencyMs: must not be negative");
+		}
+		if (source.has("reportFile"))
+			reportFile = JsonUtils.getStringOrError(scope + " -> reportFile", source.get("reportFile"));
+	}
+
+}
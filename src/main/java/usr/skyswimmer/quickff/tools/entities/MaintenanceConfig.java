@@ -0,0 +1,74 @@
+package usr.skyswimmer.quickff.tools.entities;
+
+import java.io.IOException;
+
+import com.google.gson.JsonObject;
+
+import usr.skyswimmer.quicktoolsutils.json.ISerializedJsonEntity;
+import usr.skyswimmer.quicktoolsutils.json.JsonUtils;
+
+public class MaintenanceConfig implements ISerializedJsonEntity {
+
+	public boolean enabled = true;
+
+	// Time between checks for repositories that need maintenance
+	public int checkIntervalSeconds = 60;
+
+	// Time a repository needs to be unused before it is maintained
+	public int idleSeconds = 300;
+
+	// Minimum time between two maintenance runs of the same repository
+	public int intervalMinutes = 360;
+
+	// Thresholds that make a repository due for maintenance
+	public int packLimit = 16;
+	public int looseObjectLimit = 1000;
+
+	// Age of unreachable loose objects before they are pruned
+	public int pruneExpireMinutes = 60;
+
+	// Disk throughput maintenance may use, 0 for unlimited
+	public int ioBudgetMbPerSecond = 20;
+
+	@Override
+	public void loadFromJson(JsonObject source, String scope) throws IOException {
+		if (source.has("enabled"))
+			enabled = JsonUtils.getBooleanOrError(scope, source, "enabled");
+		if (source.has("checkIntervalSeconds")) {
+			checkIntervalSeconds = JsonUtils.getElementOrError(scope, source, "checkIntervalSeconds").getAsInt();
+			if (checkIntervalSeconds < 1)
+				throw new IOException("Invalid value for " + scope + " -> checkIntervalSeconds: must be at least 1");
+		}
+		if (source.has("idleSeconds")) {
+			idleSeconds = JsonUtils.getElementOrError(scope, source, "idleSeconds").getAsInt();
+			if (idleSeconds < 0)
+				throw new IOException("Invalid value for " + scope + " -> idleSeconds: must not be negative");
+		}
+		if (source.has("intervalMinutes")) {
+			intervalMinutes = JsonUtils.getElementOrError(scope, source, "intervalMinutes").getAsInt();
+			if (intervalMinutes < 0)
+				throw new IOException("Invalid value for " + scope + " -> intervalMinutes: must not be negative");
+		}
+		if (source.has("packLimit")) {
+			packLimit = JsonUtils.getElementOrError(scope, source, "packLimit").getAsInt();
+			if (packLimit < 2)
+				throw new IOException("Invalid value for " + scope + " -> packLimit: must be at least 2");
+		}
+		if (source.has("looseObjectLimit")) {
+			looseObjectLimit = JsonUtils.getElementOrError(scope, source, "looseObjectLimit").getAsInt();
+			if (looseObjectLimit < 1)
+				throw new IOException("Invalid value for " + scope + " -> looseObjectLimit: must be at least 1");
+		}
+		if (source.has("pruneExpireMinutes")) {
+			pruneExpireMinutes = JsonUtils.getElementOrError(scope, source, "pruneExpireMinutes").getAsInt();
+			if (pruneExpireMinutes < 0)
+				throw new IOException("Invalid value for " + scope + " -> pruneExpireMinutes: must not be negative");
+		}
+		if (source.has("ioBudgetMbPerSecond")) {
+			ioBudgetMbPerSecond = JsonUtils.getElementOrError(scope, source, "ioBudgetMbPerSecond").getAsInt();
+			if (ioBudgetMbPerSecond < 0)
+				throw new IOException("Invalid value for " + scope + " -> ioBudgetMbPerSecond: must not be negative");
+		}
+	}
+
+}
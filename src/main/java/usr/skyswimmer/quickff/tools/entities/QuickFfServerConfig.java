@@ -0,0 +1,57 @@
+package usr.skyswimmer.quickff.tools.entities;
+
+import java.io.IOException;
+
+import com.google.gson.JsonObject;
+
+import usr.skyswimmer.quicktoolsutils.json.ISerializedJsonEntity;
+import usr.skyswimmer.quicktoolsutils.json.JsonUtils;
+
+public class QuickFfServerConfig implements ISerializedJsonEntity {
+
+	public int workerThreads = 4;
+
+	// Run jobs on virtual threads, workerThreads is replaced by maxVirtualJobs
+	public boolean virtualThreads = false;
+	public int maxVirtualJobs = 1024;
+
+	public boolean atomicPush = false;
+	public CloneStrategyConfig clone = new CloneStrategyConfig();
+	public CacheConfig cache = new CacheConfig();
+	public MaintenanceConfig maintenance = new MaintenanceConfig();
+	public JournalConfig journal = new JournalConfig();
+	public StatusConfig status = new StatusConfig();
+	public ClusterConfig cluster = new ClusterConfig();
+
+	@Override
+	public void loadFromJson(JsonObject source, String scope) throws IOException {
+		if (source.has("workerThreads")) {
+			workerThreads = JsonUtils.getElementOrError(scope, source, "workerThreads").getAsInt();
+			if (workerThreads < 1)
+				throw new IOException("Invalid value for " + scope + " -> workerThreads: must be at least 1");
+		}
+		if (source.has("virtualThreads"))
+			virtualThreads = JsonUtils.getBooleanOrError(scope, source, "virtualThreads");
+		if (source.has("maxVirtualJobs")) {
+			maxVirtualJobs = JsonUtils.getElementOrError(scope, source, "maxVirtualJobs").getAsInt();
+			if (maxVirtualJobs < 1)
+				throw new IOException("Invalid value for " + scope + " -> maxVirtualJobs: must be at least 1");
+		}
+		if (source.has("atomicPush"))
+			atomicPush = JsonUtils.getBooleanOrError(scope, source, "atomicPush");
+		if (source.has("clone"))
+			clone.loadFromJson(JsonUtils.getObjectOrError(scope, source, "clone"), scope + " -> clone");
+		if (source.has("cache"))
+			cache.loadFromJson(JsonUtils.getObjectOrError(scope, source, "cache"), scope + " -> cache");
+		if (source.has("maintenance"))
+			maintenance.loadFromJson(JsonUtils.getObjectOrError(scope, source, "maintenance"),
+					scope + " -> maintenance");
+		if (source.has("journal"))
+			journal.loadFromJson(JsonUtils.getObjectOrError(scope, source, "journal"), scope + " -> journal");
+		if (source.has("status"))
+			status.loadFromJson(JsonUtils.getObjectOrError(scope, source, "status"), scope + " -> status");
+		if (source.has("cluster"))
+			cluster.loadFromJson(JsonUtils.getObjectOrError(scope, source, "cluster"), scope + " -> cluster");
+	}
+
+}
@@ -0,0 +1,27 @@
+package usr.skyswimmer.quickff.tools.entities;
+
+import java.io.IOException;
+
+import com.google.gson.JsonObject;
+
+import usr.skyswimmer.quicktoolsutils.json.ISerializedJsonEntity;
+import usr.skyswimmer.quicktoolsutils.json.JsonUtils;
+
+public class StatusConfig implements ISerializedJsonEntity {
+
+	// Port of the status listener, 0 to disable
+	public int port = 0;
+	public String address = "127.0.0.1";
+
+	@Override
+	public void loadFromJson(JsonObject source, String scope) throws IOException {
+		if (source.has("port")) {
+			port = JsonUtils.getElementOrError(scope, source, "port").getAsInt();
+			if (port < 0 || port > 65535)
+				throw new IOException("Invalid value for " + scope + " -> port: must be between 0 and 65535");
+		}
+		if (source.has("address"))
+			address = JsonUtils.getStringOrError(scope + " -> address", source.get("address"));
+	}
+
+}
@@ -3,6 +3,7 @@ package usr.skyswimmer.quickff.tools.entities;
 import java.io.IOException;
 
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 
 import usr.skyswimmer.quicktoolsutils.json.ISerializedJsonEntity;
 import usr.skyswimmer.quicktoolsutils.json.JsonUtils;
@@ -16,4 +17,35 @@ public class WebhookInstallationElementEntity implements ISerializedJsonEntity {
 		id = JsonUtils.getElementOrError(scope, source, "id").getAsString();
 	}
 
+	/**
+	 * Reads the installation from a stream, skipping all unused fields
+	 *
+	 * @param reader Reader positioned at the installation object
+	 * @param scope  Scope for error messages
+	 * @throws IOException If reading fails or the ID is missing
+	 */
+	public void loadFromStream(JsonReader reader, String scope) throws IOException {
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (reader.nextName().equals("id"))
+				id = reader.nextString();
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+		if (id == null)
+			throw new IOException("Missing element: " + scope + " -> id");
+	}
+
+	/**
+	 * Serializes the installation in the webhook payload format
+	 *
+	 * @return JsonObject instance
+	 */
+	public JsonObject toJson() {
+		JsonObject res = new JsonObject();
+		res.addProperty("id", id);
+		return res;
+	}
+
 }
@@ -3,6 +3,8 @@ package usr.skyswimmer.quickff.tools.entities;
 import java.io.IOException;
 
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import usr.skyswimmer.quicktoolsutils.json.ISerializedJsonEntity;
 import usr.skyswimmer.quicktoolsutils.json.JsonUtils;
@@ -33,4 +35,66 @@ public class WebhookPushEventEntity implements ISerializedJsonEntity {
 		}
 	}
 
+	/**
+	 * Reads the event from a stream, skipping all unused fields
+	 *
+	 * @param reader Reader positioned at the event object
+	 * @param scope  Scope for error messages
+	 * @throws IOException If reading fails or a required field is missing
+	 */
+	public void loadFromStream(JsonReader reader, String scope) throws IOException {
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+			case "ref":
+				ref = reader.nextString();
+				break;
+			case "base_ref":
+				if (reader.peek() == JsonToken.NULL) {
+					reader.nextNull();
+					baseRef = null;
+				} else
+					baseRef = reader.nextString();
+				break;
+			case "before":
+				before = reader.nextString();
+				break;
+			case "after":
+				after = reader.nextString();
+				break;
+			case "repository":
+				repository = new WebhookRepositoryElementEntity();
+				repository.loadFromStream(reader, scope + " -> repository");
+				break;
+			case "installation":
+				installation = new WebhookInstallationElementEntity();
+				installation.loadFromStream(reader, scope + " -> installation");
+				break;
+			default:
+				reader.skipValue();
+				break;
+			}
+		}
+		reader.endObject();
+		if (ref == null || before == null || after == null || repository == null)
+			throw new IOException("Missing element: " + scope + " requires ref, before, after and repository");
+	}
+
+	/**
+	 * Serializes the event in the webhook payload format
+	 *
+	 * @return JsonObject instance
+	 */
+	public JsonObject toJson() {
+		JsonObject res = new JsonObject();
+		res.addProperty("ref", ref);
+		res.addProperty("base_ref", baseRef);
+		res.addProperty("before", before);
+		res.addProperty("after", after);
+		res.add("repository", repository.toJson());
+		if (installation != null)
+			res.add("installation", installation.toJson());
+		return res;
+	}
+
 }
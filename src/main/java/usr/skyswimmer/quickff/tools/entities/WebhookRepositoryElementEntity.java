@@ -3,6 +3,7 @@ package usr.skyswimmer.quickff.tools.entities;
 import java.io.IOException;
 
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 
 import usr.skyswimmer.quicktoolsutils.json.ISerializedJsonEntity;
 import usr.skyswimmer.quicktoolsutils.json.JsonUtils;
@@ -28,4 +29,60 @@ public class WebhookRepositoryElementEntity implements ISerializedJsonEntity {
 		httpUrl = JsonUtils.getElementOrError(scope, source, "clone_url").getAsString();
 	}
 
+	/**
+	 * Reads the repository from a stream, skipping all unused fields
+	 *
+	 * @param reader Reader positioned at the repository object
+	 * @param scope  Scope for error messages
+	 * @throws IOException If reading fails or a required field is missing
+	 */
+	public void loadFromStream(JsonReader reader, String scope) throws IOException {
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+			case "id":
+				id = reader.nextString();
+				break;
+			case "name":
+				name = reader.nextString();
+				break;
+			case "full_name":
+				fullName = reader.nextString();
+				break;
+			case "git_url":
+				gitUrl = reader.nextString();
+				break;
+			case "ssh_url":
+				sshUrl = reader.nextString();
+				break;
+			case "clone_url":
+				httpUrl = reader.nextString();
+				break;
+			default:
+				reader.skipValue();
+				break;
+			}
+		}
+		reader.endObject();
+		if (id == null || name == null || fullName == null || gitUrl == null || sshUrl == null || httpUrl == null)
+			throw new IOException("Missing element: " + scope
+					+ " requires id, name, full_name, git_url, ssh_url and clone_url");
+	}
+
+	/**
+	 * Serializes the repository in the webhook payload format
+	 *
+	 * @return JsonObject instance
+	 */
+	public JsonObject toJson() {
+		JsonObject res = new JsonObject();
+		res.addProperty("id", id);
+		res.addProperty("name", name);
+		res.addProperty("full_name", fullName);
+		res.addProperty("git_url", gitUrl);
+		res.addProperty("ssh_url", sshUrl);
+		res.addProperty("clone_url", httpUrl);
+		return res;
+	}
+
 }
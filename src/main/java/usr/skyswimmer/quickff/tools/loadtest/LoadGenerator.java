@@ -0,0 +1,290 @@
+package usr.skyswimmer.quickff.tools.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import usr.skyswimmer.quickff.tools.entities.LoadTestConfig;
+import usr.skyswimmer.quicktoolsutils.tasks.async.AsyncTaskManager;
+
+/**
+ *
+ * Fires signed push webhooks at a QuickFF server at a fixed rate and measures
+ * the time until the pushed commit reached all target branches
+ *
+ * Each push adds a commit to develop of one of the local remotes (round-robin),
+ * a push is complete once both experimental and stable contain its commit.
+ *
+ */
+public class LoadGenerator {
+
+	private static final String[] TARGETS = new String[] { "experimental", "stable" };
+	private static final long WATCH_INTERVAL_MS = 5;
+
+	private Logger logger = LogManager.getLogger("quickff");
+
+	private LoadTestConfig config;
+	private ArrayList<RemoteState> remotes = new ArrayList<RemoteState>();
+	private HttpClient client = HttpClient.newHttpClient();
+	private Mac mac;
+	private volatile boolean watching;
+
+	private AtomicLong sent = new AtomicLong();
+	private AtomicLong accepted = new AtomicLong();
+	private AtomicLong ignored = new AtomicLong();
+	private AtomicLong rejected = new AtomicLong();
+	private ArrayList<Long> latencies = new ArrayList<Long>();
+	private long lastCompletion;
+
+	private static class RemoteState {
+		public String name;
+		public LocalRepositories.LocalRemote remote;
+		public Repository repository;
+
+		// Sequence number of each pushed commit, pushes not yet fast-forwarded
+		public HashMap<ObjectId, Long> sequence = new HashMap<ObjectId, Long>();
+		public long nextSequence;
+		public ArrayDeque<PendingPush> pending = new ArrayDeque<PendingPush>();
+	}
+
+	private static class PendingPush {
+		public long sequence;
+		public long sentAt;
+		public boolean measured;
+	}
+
+	public LoadGenerator(LoadTestConfig config, List<LocalRepositories.LocalRemote> remotes, List<String> names)
+			throws IOException {
+		this.config = config;
+		for (int i = 0; i < remotes.size(); i++) {
+			RemoteState state = new RemoteState();
+			state.name = names.get(i);
+			state.remote = remotes.get(i);
+			state.repository = FileRepositoryBuilder.create(state.remote.dir);
+			this.remotes.add(state);
+		}
+		try {
+			mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(config.webhookSecret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+		} catch (Exception e) {
+			throw new IOException("Failed to initialize webhook signing", e);
+		}
+	}
+
+	/**
+	 * Runs the load test
+	 *
+	 * @return LoadTestReport instance
+	 * @throws IOException If generating pushes fails
+	 */
+	public LoadTestReport run() throws IOException {
+		LoadTestReport report = new LoadTestReport();
+		report.targetRate = config.rate;
+
+		// Start watcher
+		watching = true;
+		AsyncTaskManager.runAsync(() -> {
+			while (watching) {
+				checkCompleted();
+				try {
+					Thread.sleep(WATCH_INTERVAL_MS);
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+		});
+
+		// Generate load, pushes sent during warmup are not measured
+		logger.info("Sending pushes at " + config.rate + "/s for " + config.warmupSeconds + "s warmup and "
+				+ config.durationSeconds + "s measurement to " + remotes.size() + " repositories...");
+		long interval = (long) (TimeUnit.SECONDS.toNanos(1) / config.rate);
+		long next = System.nanoTime();
+		long start = next + TimeUnit.SECONDS.toNanos(config.warmupSeconds);
+		long end = start + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+		int index = 0;
+		while (next < end) {
+			long wait = next - System.nanoTime();
+			if (wait > 0)
+				LockSupport.parkNanos(wait);
+			sendPush(remotes.get(index++ % remotes.size()), next >= start);
+			next += interval;
+		}
+
+		// Drain
+		logger.info("Waiting up to " + config.drainSeconds + "s for outstanding fast-forwards...");
+		long drainEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.drainSeconds);
+		while (getPendingCount(false) > 0 && System.nanoTime() < drainEnd) {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		watching = false;
+		checkCompleted();
+		synchronized (latencies) {
+			report.elapsedSeconds = (Math.max(end, lastCompletion) - start) / 1000000000d;
+		}
+
+		// Fill report
+		report.sent = sent.get();
+		report.accepted = accepted.get();
+		report.ignored = ignored.get();
+		report.rejected = rejected.get();
+		report.timedOut = getPendingCount(true);
+		synchronized (latencies) {
+			report.completed = latencies.size();
+			report.latenciesMs = latencies.stream().mapToLong(t -> t).toArray();
+		}
+		for (RemoteState state : remotes)
+			state.repository.close();
+		return report;
+	}
+
+	private void sendPush(RemoteState state, boolean measured) throws IOException {
+		// Commit
+		ObjectId before = state.repository.resolve("refs/heads/develop");
+		ObjectId after = LocalRepositories.appendCommit(state.remote, "develop", LocalRepositories.DEFAULT_CONFIG);
+
+		// Build payload
+		JsonObject payload = LocalRepositories.createPush(state.remote, state.name, "develop", before, after)
+				.toJson();
+		payload.addProperty("created", false);
+		payload.addProperty("deleted", false);
+		payload.addProperty("forced", false);
+		JsonArray commits = new JsonArray();
+		JsonObject commit = new JsonObject();
+		commit.addProperty("id", after.getName());
+		commit.add("added", new JsonArray());
+		JsonArray modified = new JsonArray();
+		modified.add("file.txt");
+		commit.add("modified", modified);
+		commit.add("removed", new JsonArray());
+		commits.add(commit);
+		payload.add("commits", commits);
+		byte[] body = payload.toString().getBytes(StandardCharsets.UTF_8);
+
+		// Sign
+		byte[] signature;
+		synchronized (mac) {
+			signature = mac.doFinal(body);
+		}
+		StringBuilder hex = new StringBuilder("sha256=");
+		for (byte b : signature)
+			hex.append(String.format("%02x", b));
+
+		// Register and send
+		PendingPush push = new PendingPush();
+		push.measured = measured;
+		synchronized (state) {
+			push.sequence = state.nextSequence++;
+			state.sequence.put(after.copy(), push.sequence);
+			push.sentAt = System.nanoTime();
+			state.pending.add(push);
+		}
+		if (measured)
+			sent.incrementAndGet();
+		HttpRequest req = HttpRequest.newBuilder(URI.create(config.webhookUrl))
+				.header("Content-Type", "application/json").header("User-Agent", "GitHub-Hookshot/quickff-loadtest")
+				.header("X-GitHub-Event", "push").header("X-GitHub-Delivery", UUID.randomUUID().toString())
+				.header("X-Hub-Signature-256", hex.toString()).POST(HttpRequest.BodyPublishers.ofByteArray(body))
+				.build();
+		client.sendAsync(req, HttpResponse.BodyHandlers.discarding()).whenComplete((res, err) -> {
+			if (err != null || res.statusCode() < 200 || res.statusCode() >= 300) {
+				if (measured)
+					rejected.incrementAndGet();
+				if (err != null)
+					logger.error("[" + state.name + "] Webhook request failed", err);
+				else
+					logger.error("[" + state.name + "] Webhook request returned " + res.statusCode());
+
+				// Will never complete
+				synchronized (state) {
+					state.pending.remove(push);
+				}
+			} else if (!measured)
+				return;
+			else if (res.statusCode() == 202)
+				accepted.incrementAndGet();
+			else
+				ignored.incrementAndGet();
+		});
+	}
+
+	private void checkCompleted() {
+		long now = System.nanoTime();
+		for (RemoteState state : remotes) {
+			synchronized (state) {
+				if (state.pending.isEmpty())
+					continue;
+			}
+
+			// Find the oldest push present on all targets
+			long reached = Long.MAX_VALUE;
+			try {
+				for (String target : TARGETS) {
+					Ref ref = state.repository.exactRef("refs/heads/" + target);
+					Long seq;
+					synchronized (state) {
+						seq = ref == null ? null : state.sequence.get(ref.getObjectId());
+					}
+					reached = Math.min(reached, seq == null ? -1 : seq);
+				}
+			} catch (IOException e) {
+				logger.error("[" + state.name + "] Failed to read target branches", e);
+				continue;
+			}
+
+			// Complete pushes
+			synchronized (state) {
+				while (!state.pending.isEmpty() && state.pending.peek().sequence <= reached) {
+					PendingPush push = state.pending.poll();
+					if (!push.measured)
+						continue;
+					synchronized (latencies) {
+						latencies.add(TimeUnit.NANOSECONDS.toMillis(now - push.sentAt));
+						lastCompletion = now;
+					}
+				}
+			}
+		}
+	}
+
+	private long getPendingCount(boolean measuredOnly) {
+		long count = 0;
+		for (RemoteState state : remotes) {
+			synchronized (state) {
+				for (PendingPush push : state.pending) {
+					if (push.measured || !measuredOnly)
+						count++;
+				}
+			}
+		}
+		return count;
+	}
+
+}
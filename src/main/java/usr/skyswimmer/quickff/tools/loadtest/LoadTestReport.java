@@ -0,0 +1,129 @@
+package usr.skyswimmer.quickff.tools.loadtest;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.logging.log4j.Logger;
+
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * Results of a load test run
+ *
+ */
+public class LoadTestReport {
+
+	// Load
+	public double targetRate;
+	public double elapsedSeconds;
+	public long sent;
+	public long accepted;
+	public long ignored;
+	public long rejected;
+
+	// Fast-forwards
+	public long completed;
+	public long timedOut;
+	public long[] latenciesMs = new long[0];
+
+	// Runtime
+	public int peakThreads;
+	public double averageThreads;
+	public long peakHeapBytes;
+	public long averageHeapBytes;
+	public long maxHeapBytes;
+	public long gcCount;
+	public long gcTimeMs;
+
+	// Mock API
+	public Map<String, Long> apiRequests;
+
+	/**
+	 * Retrieves a latency percentile
+	 *
+	 * @param percentile Percentile (0-100)
+	 * @return Latency in milliseconds, -1 if nothing completed
+	 */
+	public long getLatencyPercentile(double percentile) {
+		if (latenciesMs.length == 0)
+			return -1;
+		long[] sorted = Arrays.copyOf(latenciesMs, latenciesMs.length);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100d * sorted.length) - 1;
+		return sorted[Math.min(Math.max(index, 0), sorted.length - 1)];
+	}
+
+	/**
+	 * Retrieves the fast-forward throughput
+	 *
+	 * @return Completed fast-forwards per second
+	 */
+	public double getThroughput() {
+		return elapsedSeconds <= 0 ? 0 : completed / elapsedSeconds;
+	}
+
+	/**
+	 * Writes the report as json
+	 *
+	 * @return JsonObject instance
+	 */
+	public JsonObject toJson() {
+		JsonObject res = new JsonObject();
+		JsonObject load = new JsonObject();
+		load.addProperty("targetRate", targetRate);
+		load.addProperty("elapsedSeconds", elapsedSeconds);
+		load.addProperty("sent", sent);
+		load.addProperty("accepted", accepted);
+		load.addProperty("ignored", ignored);
+		load.addProperty("rejected", rejected);
+		res.add("load", load);
+		JsonObject ff = new JsonObject();
+		ff.addProperty("completed", completed);
+		ff.addProperty("timedOut", timedOut);
+		ff.addProperty("throughput", getThroughput());
+		ff.addProperty("p50Ms", getLatencyPercentile(50));
+		ff.addProperty("p90Ms", getLatencyPercentile(90));
+		ff.addProperty("p99Ms", getLatencyPercentile(99));
+		ff.addProperty("maxMs", getLatencyPercentile(100));
+		res.add("fastForwards", ff);
+		JsonObject runtime = new JsonObject();
+		runtime.addProperty("peakThreads", peakThreads);
+		runtime.addProperty("averageThreads", averageThreads);
+		runtime.addProperty("peakHeapBytes", peakHeapBytes);
+		runtime.addProperty("averageHeapBytes", averageHeapBytes);
+		runtime.addProperty("maxHeapBytes", maxHeapBytes);
+		runtime.addProperty("gcCount", gcCount);
+		runtime.addProperty("gcTimeMs", gcTimeMs);
+		res.add("runtime", runtime);
+		JsonObject api = new JsonObject();
+		if (apiRequests != null)
+			apiRequests.forEach((endpoint, count) -> api.addProperty(endpoint, count));
+		res.add("apiRequests", api);
+		return res;
+	}
+
+	/**
+	 * Logs a summary of the report
+	 *
+	 * @param logger Logger to write to
+	 */
+	public void log(Logger logger) {
+		logger.info("Load test results:");
+		logger.info("  Webhooks:      " + sent + " sent in " + String.format("%.1f", elapsedSeconds) + "s (target "
+				+ targetRate + "/s), " + accepted + " accepted, " + ignored + " ignored, " + rejected + " rejected");
+		logger.info("  Fast-forwards: " + completed + " completed, " + timedOut + " timed out, "
+				+ String.format("%.2f", getThroughput()) + "/s");
+		logger.info("  Latency:       p50 " + getLatencyPercentile(50) + "ms, p90 " + getLatencyPercentile(90)
+				+ "ms, p99 " + getLatencyPercentile(99) + "ms, max " + getLatencyPercentile(100) + "ms");
+		logger.info("  Threads:       peak " + peakThreads + ", average " + String.format("%.1f", averageThreads));
+		logger.info("  Heap:          peak " + (peakHeapBytes / 1024 / 1024) + "MB, average "
+				+ (averageHeapBytes / 1024 / 1024) + "MB, max " + (maxHeapBytes / 1024 / 1024) + "MB, " + gcCount
+				+ " GCs taking " + gcTimeMs + "ms");
+		if (apiRequests != null) {
+			logger.info("  API requests:");
+			apiRequests.forEach((endpoint, count) -> logger.info("    " + endpoint + ": " + count));
+		}
+	}
+
+}
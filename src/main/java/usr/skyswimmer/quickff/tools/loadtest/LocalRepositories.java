@@ -0,0 +1,179 @@
+package usr.skyswimmer.quickff.tools.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+import usr.skyswimmer.quickff.tools.entities.WebhookInstallationElementEntity;
+import usr.skyswimmer.quickff.tools.entities.WebhookPushEventEntity;
+import usr.skyswimmer.quickff.tools.entities.WebhookRepositoryElementEntity;
+
+/**
+ *
+ * Generates local repositories for load tests and benchmarks, remotes are
+ * bare repositories accessed through file:// URLs so no network is involved
+ *
+ */
+public class LocalRepositories {
+
+	public static final String DEFAULT_CONFIG = "{\"enabled\":true,"
+			+ "\"branches\":{\"develop\":[\"experimental\",\"stable\"]}}";
+
+	public static class LocalRemote {
+		public File dir;
+		public String url;
+
+		// History of develop, experimental and stable start halfway
+		public ObjectId[] history;
+	}
+
+	/**
+	 * Creates a bare remote with a linear develop history, experimental and
+	 * stable point to the middle of the history
+	 *
+	 * @param dir     Directory to create the remote in
+	 * @param commits Amount of commits
+	 * @param config  Content of autoff.json
+	 * @return LocalRemote instance
+	 * @throws IOException If creating the repository fails
+	 */
+	public static LocalRemote create(File dir, int commits, String config) throws IOException {
+		LocalRemote remote = new LocalRemote();
+		remote.dir = dir;
+		remote.url = "file://" + dir.getAbsolutePath();
+		remote.history = new ObjectId[commits];
+		try (Repository repo = FileRepositoryBuilder.create(dir)) {
+			repo.create(true);
+
+			// Write history
+			try (ObjectInserter inserter = repo.newObjectInserter()) {
+				ObjectId configBlob = inserter.insert(Constants.OBJ_BLOB, config.getBytes(StandardCharsets.UTF_8));
+				ObjectId parent = null;
+				for (int i = 0; i < commits; i++) {
+					parent = writeCommit(inserter, configBlob, parent, i);
+					remote.history[i] = parent;
+				}
+				inserter.flush();
+			}
+		}
+
+		// Create branches
+		setRef(remote, "develop", remote.history[commits - 1]);
+		setRef(remote, "experimental", remote.history[commits / 2]);
+		setRef(remote, "stable", remote.history[commits / 2]);
+		return remote;
+	}
+
+	/**
+	 * Adds a commit on top of a branch of the remote
+	 *
+	 * @param remote Remote repository
+	 * @param branch Branch to commit to
+	 * @param config Content of autoff.json
+	 * @return New commit ID
+	 * @throws IOException If writing fails
+	 */
+	public static ObjectId appendCommit(LocalRemote remote, String branch, String config) throws IOException {
+		ObjectId commit;
+		try (Repository repo = FileRepositoryBuilder.create(remote.dir)) {
+			ObjectId parent = repo.resolve("refs/heads/" + branch);
+			try (ObjectInserter inserter = repo.newObjectInserter()) {
+				ObjectId configBlob = inserter.insert(Constants.OBJ_BLOB, config.getBytes(StandardCharsets.UTF_8));
+				commit = writeCommit(inserter, configBlob, parent, System.nanoTime());
+				inserter.flush();
+			}
+		}
+		setRef(remote, branch, commit);
+		return commit;
+	}
+
+	/**
+	 * Points a branch of the remote to a commit
+	 *
+	 * @param remote Remote repository
+	 * @param branch Branch name
+	 * @param id     Commit ID
+	 * @throws IOException If updating the ref fails
+	 */
+	public static void setRef(LocalRemote remote, String branch, ObjectId id) throws IOException {
+		try (Repository repo = FileRepositoryBuilder.create(remote.dir)) {
+			RefUpdate update = repo.updateRef("refs/heads/" + branch);
+			update.setNewObjectId(id);
+			update.setForceUpdate(true);
+			update.update();
+		}
+	}
+
+	/**
+	 * Creates a push event for a branch of the remote
+	 *
+	 * @param remote Remote repository
+	 * @param name   Repository name
+	 * @param branch Branch that was pushed to
+	 * @param before Previous commit
+	 * @param after  New commit
+	 * @return WebhookPushEventEntity instance
+	 */
+	public static WebhookPushEventEntity createPush(LocalRemote remote, String name, String branch, ObjectId before,
+			ObjectId after) {
+		WebhookPushEventEntity push = new WebhookPushEventEntity();
+		push.ref = "refs/heads/" + branch;
+		push.before = before.getName();
+		push.after = after.getName();
+		push.repository = new WebhookRepositoryElementEntity();
+		push.repository.id = "1";
+		push.repository.name = name.substring(name.indexOf('/') + 1);
+		push.repository.fullName = name;
+		push.repository.gitUrl = remote.url;
+		push.repository.sshUrl = remote.url;
+		push.repository.httpUrl = remote.url;
+		push.installation = new WebhookInstallationElementEntity();
+		push.installation.id = "1";
+		return push;
+	}
+
+	/**
+	 * Creates a temporary directory
+	 *
+	 * @param prefix Directory name prefix
+	 * @return File instance
+	 * @throws IOException If creating the directory fails
+	 */
+	public static File createTempDir(String prefix) throws IOException {
+		return Files.createTempDirectory("quickff-" + prefix).toFile();
+	}
+
+	private static ObjectId writeCommit(ObjectInserter inserter, ObjectId configBlob, ObjectId parent, long index)
+			throws IOException {
+		// Tree with the config and a changing file
+		ObjectId file = inserter.insert(Constants.OBJ_BLOB,
+				("Commit " + index + "\n").getBytes(StandardCharsets.UTF_8));
+		TreeFormatter tree = new TreeFormatter();
+		tree.append("autoff.json", FileMode.REGULAR_FILE, configBlob);
+		tree.append("file.txt", FileMode.REGULAR_FILE, file);
+
+		// Commit
+		PersonIdent ident = new PersonIdent("Benchmark", "benchmark@localhost");
+		CommitBuilder commit = new CommitBuilder();
+		commit.setTreeId(inserter.insert(tree));
+		if (parent != null)
+			commit.setParentId(parent);
+		commit.setAuthor(ident);
+		commit.setCommitter(ident);
+		commit.setMessage("Commit " + index);
+		return inserter.insert(commit);
+	}
+
+}
@@ -0,0 +1,166 @@
+package usr.skyswimmer.quickff.tools.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ *
+ * Local stand-in for the parts of the GitHub API used by QuickFF, answers
+ * installation token, app, user, repository, status and comment requests and
+ * counts them per endpoint
+ *
+ */
+public class MockGithubApi {
+
+	public static final String APP_SLUG = "quickff-loadtest";
+	public static final long BOT_USER_ID = 1000;
+
+	private Logger logger = LogManager.getLogger("quickff");
+
+	private int port;
+	private int latencyMs;
+	private HttpServer server;
+
+	private ConcurrentHashMap<String, AtomicLong> requests = new ConcurrentHashMap<String, AtomicLong>();
+
+	public MockGithubApi(int port, int latencyMs) {
+		this.port = port;
+		this.latencyMs = latencyMs;
+	}
+
+	/**
+	 * Starts the API listener on the loopback interface
+	 *
+	 * @throws IOException If binding the port fails
+	 */
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		server.createContext("/", exchange -> {
+			try {
+				handle(exchange);
+			} catch (Exception e) {
+				logger.error("Mock API failed to handle " + exchange.getRequestMethod() + " "
+						+ exchange.getRequestURI(), e);
+			} finally {
+				exchange.close();
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		logger.info("Mock GitHub API listening on " + getUrl());
+	}
+
+	/**
+	 * Stops the API listener
+	 */
+	public void stop() {
+		if (server != null)
+			server.stop(0);
+	}
+
+	/**
+	 * Retrieves the base URL of the API
+	 *
+	 * @return API URL
+	 */
+	public String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Retrieves the amount of requests received per endpoint
+	 *
+	 * @return Map of endpoint names to request counts
+	 */
+	public Map<String, Long> getRequestCounts() {
+		TreeMap<String, Long> res = new TreeMap<String, Long>();
+		requests.forEach((endpoint, count) -> res.put(endpoint, count.get()));
+		return res;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException, InterruptedException {
+		// Drain request body
+		try (InputStream in = exchange.getRequestBody()) {
+			in.readAllBytes();
+		}
+		if (latencyMs > 0)
+			Thread.sleep(latencyMs);
+
+		// Find endpoint
+		String method = exchange.getRequestMethod();
+		String[] path = exchange.getRequestURI().getPath().substring(1).split("/");
+		JsonObject response = new JsonObject();
+		String endpoint;
+		int status = 200;
+		if (method.equals("POST") && path.length == 4 && path[0].equals("app") && path[1].equals("installations")
+				&& path[3].equals("access_tokens")) {
+			// Installation token
+			endpoint = "POST /app/installations/{id}/access_tokens";
+			status = 201;
+			response.addProperty("token", "ghs_" + UUID.randomUUID().toString().replace("-", ""));
+			response.addProperty("expires_at", Instant.now().plusSeconds(60 * 60).toString());
+		} else if (method.equals("GET") && path.length == 1 && path[0].equals("app")) {
+			// App
+			endpoint = "GET /app";
+			response.addProperty("id", 1);
+			response.addProperty("slug", APP_SLUG);
+			response.addProperty("name", APP_SLUG);
+		} else if (method.equals("GET") && path.length == 2 && path[0].equals("users")) {
+			// User
+			endpoint = "GET /users/{login}";
+			response.addProperty("id", BOT_USER_ID);
+			response.addProperty("login", path[1]);
+			response.addProperty("type", "Bot");
+		} else if (method.equals("GET") && path.length == 3 && path[0].equals("repos")) {
+			// Repository, generated repositories are never forks
+			endpoint = "GET /repos/{owner}/{repo}";
+			response.addProperty("id", 1);
+			response.addProperty("full_name", path[1] + "/" + path[2]);
+			response.addProperty("fork", false);
+		} else if (method.equals("POST") && path.length == 5 && path[0].equals("repos")
+				&& path[3].equals("statuses")) {
+			// Commit status
+			endpoint = "POST /repos/{owner}/{repo}/statuses/{sha}";
+			status = 201;
+			response.addProperty("id", 1);
+		} else if (method.equals("POST") && path.length == 6 && path[0].equals("repos")
+				&& (path[3].equals("commits") || path[3].equals("issues")) && path[5].equals("comments")) {
+			// Comment
+			endpoint = "POST /repos/{owner}/{repo}/" + path[3] + "/{id}/comments";
+			status = 201;
+			response.addProperty("id", 1);
+		} else {
+			endpoint = "unknown";
+			status = 404;
+			response.addProperty("message", "Not Found");
+			logger.warn("Mock API received unsupported request " + method + " " + exchange.getRequestURI());
+		}
+		requests.computeIfAbsent(endpoint, t -> new AtomicLong()).incrementAndGet();
+
+		// Send
+		byte[] data = response.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, data.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(data);
+		}
+	}
+
+}
@@ -0,0 +1,113 @@
+package usr.skyswimmer.quickff.tools.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import usr.skyswimmer.githubwebhooks.apps.GithubApp;
+import usr.skyswimmer.quickff.tools.quickff.backend.IGithubBackend;
+
+/**
+ *
+ * Backend that sends all GitHub traffic of the runner to a MockGithubApi
+ * instance, tokens and bot identities are cached the same way the default
+ * backend caches them
+ *
+ */
+public class MockGithubBackend implements IGithubBackend {
+
+	private String apiUrl;
+	private HttpClient client = HttpClient.newHttpClient();
+
+	private ConcurrentHashMap<String, String> tokens = new ConcurrentHashMap<String, String>();
+	private volatile PersonIdent botIdentity;
+
+	// Not monitors, requests may run on virtual threads
+	private ReentrantLock identityLock = new ReentrantLock();
+	private ReentrantLock tokenLock = new ReentrantLock();
+
+	public MockGithubBackend(String apiUrl) {
+		this.apiUrl = apiUrl;
+	}
+
+	@Override
+	public CredentialsProvider getCredentials(GithubApp app, String installationId) throws IOException {
+		return new UsernamePasswordCredentialsProvider("x-access-token", getToken(installationId));
+	}
+
+	@Override
+	public PersonIdent getBotIdentity(GithubApp app) throws IOException {
+		if (botIdentity == null) {
+			identityLock.lock();
+			try {
+				if (botIdentity == null) {
+					String name = request("/app", "GET", null, null).get("slug").getAsString();
+					String uId = request("/users/" + URLEncoder.encode(name + "[bot]", "UTF-8"), "GET", null, null)
+							.get("id").getAsString();
+					botIdentity = new PersonIdent(name + "[bot]",
+							uId + "+" + name + "[bot]@users.noreply.github.com");
+				}
+			} finally {
+				identityLock.unlock();
+			}
+		}
+		return new PersonIdent(botIdentity.getName(), botIdentity.getEmailAddress());
+	}
+
+	@Override
+	public JsonObject installationApiRequest(GithubApp app, String installationId, String path, String method,
+			JsonObject payload) throws IOException {
+		return request(path, method, payload, getToken(installationId));
+	}
+
+	private String getToken(String installationId) throws IOException {
+		String token = tokens.get(installationId);
+		if (token != null)
+			return token;
+		tokenLock.lock();
+		try {
+			token = tokens.get(installationId);
+			if (token == null) {
+				token = request("/app/installations/" + installationId + "/access_tokens", "POST", null, null)
+						.get("token").getAsString();
+				tokens.put(installationId, token);
+			}
+			return token;
+		} finally {
+			tokenLock.unlock();
+		}
+	}
+
+	private JsonObject request(String path, String method, JsonObject payload, String token) throws IOException {
+		HttpRequest.Builder req = HttpRequest.newBuilder(URI.create(apiUrl + path))
+				.header("Accept", "application/vnd.github+json")
+				.method(method, payload == null ? HttpRequest.BodyPublishers.noBody()
+						: HttpRequest.BodyPublishers.ofString(payload.toString(), StandardCharsets.UTF_8));
+		if (token != null)
+			req.header("Authorization", "Bearer " + token);
+		if (payload != null)
+			req.header("Content-Type", "application/json");
+		try {
+			HttpResponse<String> res = client.send(req.build(), HttpResponse.BodyHandlers.ofString());
+			if (res.statusCode() < 200 || res.statusCode() >= 300)
+				throw new IOException("Mock API returned " + res.statusCode() + " for " + method + " " + path);
+			return JsonParser.parseString(res.body()).getAsJsonObject();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted during API request", e);
+		}
+	}
+
+}
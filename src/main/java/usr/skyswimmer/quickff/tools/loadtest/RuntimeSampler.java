@@ -0,0 +1,93 @@
+package usr.skyswimmer.quickff.tools.loadtest;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import usr.skyswimmer.quicktoolsutils.tasks.async.AsyncTaskManager;
+
+/**
+ *
+ * Samples thread count and heap usage of the JVM while a load test runs
+ *
+ */
+public class RuntimeSampler {
+
+	private long intervalMs;
+	private volatile boolean running;
+
+	private long samples;
+	private long threadTotal;
+	private int peakThreads;
+	private long heapTotal;
+	private long peakHeap;
+
+	private long gcCountStart;
+	private long gcTimeStart;
+
+	public RuntimeSampler(long intervalMs) {
+		this.intervalMs = intervalMs;
+	}
+
+	/**
+	 * Starts sampling
+	 */
+	public void start() {
+		gcCountStart = getGcCount();
+		gcTimeStart = getGcTime();
+		running = true;
+		AsyncTaskManager.runAsync(() -> {
+			while (running) {
+				sample();
+				try {
+					Thread.sleep(intervalMs);
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stops sampling and writes the results to a report
+	 *
+	 * @param report Report to fill
+	 */
+	public void stop(LoadTestReport report) {
+		running = false;
+		sample();
+		synchronized (this) {
+			report.peakThreads = peakThreads;
+			report.averageThreads = samples == 0 ? 0 : (double) threadTotal / samples;
+			report.peakHeapBytes = peakHeap;
+			report.averageHeapBytes = samples == 0 ? 0 : heapTotal / samples;
+			report.maxHeapBytes = Runtime.getRuntime().maxMemory();
+		}
+		report.gcCount = getGcCount() - gcCountStart;
+		report.gcTimeMs = getGcTime() - gcTimeStart;
+	}
+
+	private synchronized void sample() {
+		int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+		long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+		samples++;
+		threadTotal += threads;
+		heapTotal += heap;
+		peakThreads = Math.max(peakThreads, threads);
+		peakHeap = Math.max(peakHeap, heap);
+	}
+
+	private static long getGcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(gc.getCollectionCount(), 0);
+		return count;
+	}
+
+	private static long getGcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			time += Math.max(gc.getCollectionTime(), 0);
+		return time;
+	}
+
+}
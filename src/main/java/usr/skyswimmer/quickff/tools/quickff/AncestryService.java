@@ -0,0 +1,203 @@
+package usr.skyswimmer.quickff.tools.quickff;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphWriter;
+import org.eclipse.jgit.internal.storage.commitgraph.GraphCommits;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+
+/**
+ *
+ * Ancestry query service, answers ancestry and merge base questions for a
+ * single run using one shared walk so parsed commits are reused between
+ * queries
+ *
+ * Commit-graph files are written with the internal JGit commit-graph writer,
+ * which has no compatibility guarantee between JGit releases. All use of it is
+ * kept within this class.
+ *
+ */
+public class AncestryService implements AutoCloseable {
+
+	private Repository repo;
+	private RevWalk walk;
+	private HashMap<String, Boolean> ancestorResults = new HashMap<String, Boolean>();
+
+	public AncestryService(Repository repo) {
+		this.repo = repo;
+		this.walk = new RevWalk(repo);
+		walk.setRetainBody(false);
+	}
+
+	/**
+	 * Checks if a commit is an ancestor of (or equal to) another commit
+	 *
+	 * @param ancestor Possible ancestor commit
+	 * @param tip      Commit to search the history of
+	 * @return True if ancestor is reachable from tip, false otherwise
+	 * @throws IOException If walking the history fails
+	 */
+	public boolean isAncestor(AnyObjectId ancestor, AnyObjectId tip) throws IOException {
+		String key = ancestor.getName() + ".." + tip.getName();
+		Boolean res = ancestorResults.get(key);
+		if (res == null) {
+			res = walk.isMergedInto(walk.parseCommit(ancestor), walk.parseCommit(tip));
+			ancestorResults.put(key, res);
+		}
+		return res;
+	}
+
+	/**
+	 * Checks if two commits have a common ancestor in the local history
+	 *
+	 * @param a First commit
+	 * @param b Second commit
+	 * @return True if a merge base was found, false otherwise
+	 * @throws IOException If walking the history fails
+	 */
+	public boolean hasMergeBase(AnyObjectId a, AnyObjectId b) throws IOException {
+		RevCommit commitA = walk.parseCommit(a);
+		RevCommit commitB = walk.parseCommit(b);
+		try {
+			walk.reset();
+			walk.setRevFilter(RevFilter.MERGE_BASE);
+			walk.markStart(commitA);
+			walk.markStart(commitB);
+			return walk.next() != null;
+		} finally {
+			walk.reset();
+			walk.setRevFilter(RevFilter.ALL);
+		}
+	}
+
+	/**
+	 * Discards all parsed commits and cached results, needs to be called after
+	 * the history of the repository changed (eg. after deepening)
+	 */
+	public void invalidate() {
+		walk.close();
+		walk = new RevWalk(repo);
+		walk.setRetainBody(false);
+		ancestorResults.clear();
+	}
+
+	@Override
+	public void close() {
+		walk.close();
+	}
+
+	/**
+	 * Enables reading commit-graph files for a repository
+	 *
+	 * @param repo Repository to configure
+	 * @throws IOException If saving the configuration fails
+	 */
+	public static void enableCommitGraph(Repository repo) throws IOException {
+		StoredConfig conf = repo.getConfig();
+		if (!conf.getBoolean("core", null, "commitGraph", false)) {
+			conf.setBoolean("core", null, "commitGraph", true);
+			conf.save();
+		}
+	}
+
+	/**
+	 * Disables the commit-graph of a repository and removes its file, used when
+	 * writing the graph failed
+	 *
+	 * @param repo Repository to configure
+	 * @throws IOException If saving the configuration fails
+	 */
+	public static void disableCommitGraph(Repository repo) throws IOException {
+		getCommitGraphFile(repo).delete();
+		StoredConfig conf = repo.getConfig();
+		conf.setBoolean("core", null, "commitGraph", false);
+		conf.save();
+	}
+
+	/**
+	 * Checks if the commit-graph was disabled for a repository
+	 *
+	 * @param repo Repository to check
+	 * @return True if disabled with {@link #disableCommitGraph(Repository)},
+	 *         false otherwise
+	 */
+	public static boolean isCommitGraphDisabled(Repository repo) {
+		StoredConfig conf = repo.getConfig();
+		return conf.getString("core", null, "commitGraph") != null
+				&& !conf.getBoolean("core", null, "commitGraph", false);
+	}
+
+	/**
+	 * Checks if a repository has a commit-graph file
+	 *
+	 * @param repo Repository to check
+	 * @return True if a commit-graph file is present, false otherwise
+	 */
+	public static boolean hasCommitGraph(Repository repo) {
+		return getCommitGraphFile(repo).isFile();
+	}
+
+	/**
+	 * Writes the commit-graph file of a repository for all branch tips, shallow
+	 * repositories are skipped as their graph would be incomplete
+	 *
+	 * @param repo Repository to write the graph for
+	 * @return True if written, false if the repository is shallow
+	 * @throws IOException If writing fails
+	 */
+	public static boolean writeCommitGraph(Repository repo) throws IOException {
+		File shallow = new File(repo.getDirectory(), "shallow");
+		if (shallow.exists() && shallow.length() != 0)
+			return false;
+
+		// Find tips
+		HashSet<ObjectId> tips = new HashSet<ObjectId>();
+		try (RevWalk walk = new RevWalk(repo)) {
+			for (Ref ref : repo.getRefDatabase().getRefsByPrefix(Constants.R_REFS)) {
+				if (ref.getObjectId() == null)
+					continue;
+				RevObject obj = walk.peel(walk.parseAny(ref.getObjectId()));
+				if (obj instanceof RevCommit)
+					tips.add(obj.getId());
+			}
+		}
+		if (tips.isEmpty())
+			return false;
+
+		// Write to temporary file and move into place
+		File graphFile = getCommitGraphFile(repo);
+		graphFile.getParentFile().mkdirs();
+		File tmp = new File(graphFile.getParentFile(), graphFile.getName() + ".tmp");
+		try (RevWalk walk = new RevWalk(repo); FileOutputStream out = new FileOutputStream(tmp)) {
+			GraphCommits commits = GraphCommits.fromWalk(NullProgressMonitor.INSTANCE, tips, walk);
+			new CommitGraphWriter(commits).write(NullProgressMonitor.INSTANCE, out);
+		} catch (IOException e) {
+			tmp.delete();
+			throw e;
+		}
+		Files.move(tmp.toPath(), graphFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		return true;
+	}
+
+	private static File getCommitGraphFile(Repository repo) {
+		return new File(new File(repo.getDirectory(), "objects"), Constants.INFO_COMMIT_GRAPH);
+	}
+
+}
@@ -0,0 +1,97 @@
+package usr.skyswimmer.quickff.tools.quickff;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import usr.skyswimmer.quickff.tools.entities.AutoFfConfig;
+import usr.skyswimmer.quickff.tools.quickff.metrics.QuickFfMetrics;
+
+/**
+ *
+ * Parsed autoff.json cache, keyed by blob ID so unchanged configurations are
+ * only parsed once, parse errors are cached as well
+ *
+ */
+public class AutoFfConfigCache {
+
+	private static final int MAX_ENTRIES = 512;
+
+	private LinkedHashMap<ObjectId, CachedConfig> configs = new LinkedHashMap<ObjectId, CachedConfig>(16, 0.75f,
+			true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ObjectId, CachedConfig> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	public static class CachedConfig {
+		public ObjectId blobId;
+		public AutoFfConfig config;
+		public Exception error;
+
+		// Repositories the error was reported to
+		private HashSet<String> reportedTo = new HashSet<String>();
+
+		/**
+		 * Marks the error of this configuration as reported to a repository
+		 *
+		 * @param repository Repository name
+		 * @return True if the error was not yet reported to the repository, false
+		 *         otherwise
+		 */
+		public synchronized boolean markReported(String repository) {
+			return reportedTo.add(repository);
+		}
+	}
+
+	/**
+	 * Retrieves a parsed configuration, parsing the blob if it was not seen
+	 * before
+	 *
+	 * @param repo   Repository containing the blob
+	 * @param blobId Blob ID of the autoff.json file
+	 * @return CachedConfig instance holding either the configuration or the parse
+	 *         error
+	 * @throws IOException If reading the blob fails
+	 */
+	public CachedConfig get(Repository repo, ObjectId blobId) throws IOException {
+		synchronized (configs) {
+			CachedConfig cached = configs.get(blobId);
+			QuickFfMetrics.cacheLookup("config", cached != null);
+			if (cached != null)
+				return cached;
+		}
+
+		// Parse
+		CachedConfig cached = new CachedConfig();
+		cached.blobId = blobId.copy();
+		try (InputStreamReader reader = new InputStreamReader(repo.open(blobId).openStream())) {
+			AutoFfConfig config = new AutoFfConfig();
+			try {
+				JsonObject confJson = JsonParser.parseReader(reader).getAsJsonObject();
+				config.loadFromJson(confJson, "autoff.json");
+				cached.config = config;
+			} catch (Exception e) {
+				cached.error = e;
+			}
+		}
+
+		// Store, keep the first result if another runner parsed it meanwhile
+		synchronized (configs) {
+			CachedConfig existing = configs.putIfAbsent(cached.blobId, cached);
+			return existing != null ? existing : cached;
+		}
+	}
+
+}
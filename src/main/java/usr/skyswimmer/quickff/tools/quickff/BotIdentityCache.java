@@ -0,0 +1,79 @@
+package usr.skyswimmer.quickff.tools.quickff;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.lib.PersonIdent;
+
+import usr.skyswimmer.githubwebhooks.apps.GithubApp;
+import usr.skyswimmer.quickff.tools.quickff.metrics.QuickFfMetrics;
+
+/**
+ *
+ * Bot identity cache, resolves the commit identity of each GitHub app once and
+ * shares it between all runners
+ *
+ */
+public class BotIdentityCache {
+
+	private Logger logger = LogManager.getLogger("quickff");
+
+	private HashMap<String, BotIdentity> identities = new HashMap<String, BotIdentity>();
+	private HashMap<String, ReentrantLock> appLocks = new HashMap<String, ReentrantLock>();
+
+	private static class BotIdentity {
+		public String name;
+		public String email;
+	}
+
+	/**
+	 * Retrieves the commit identity of a GitHub app bot user
+	 *
+	 * @param app GitHub app
+	 * @return PersonIdent instance (with current time)
+	 * @throws IOException If resolving the identity fails
+	 */
+	public PersonIdent getIdentity(GithubApp app) throws IOException {
+		BotIdentity identity;
+		synchronized (identities) {
+			identity = identities.get(app.getId());
+		}
+		QuickFfMetrics.cacheLookup("bot_identity", identity != null);
+		if (identity == null) {
+			// Resolve, serialized per app so concurrent runners share one lookup
+			ReentrantLock appLock = getAppLock(app);
+			appLock.lock();
+			try {
+				synchronized (identities) {
+					identity = identities.get(app.getId());
+				}
+				if (identity == null) {
+					logger.info("Resolving bot identity of app " + app.getId() + "...");
+					String name = app.appApiRequest("/app", "GET", null).get("slug").getAsString();
+					String uId = app.apiRequest("/users/" + URLEncoder.encode(name + "[bot]", "UTF-8"), "GET", null)
+							.get("id").getAsString();
+					identity = new BotIdentity();
+					identity.name = name + "[bot]";
+					identity.email = uId + "+" + name + "[bot]@users.noreply.github.com";
+					synchronized (identities) {
+						identities.put(app.getId(), identity);
+					}
+				}
+			} finally {
+				appLock.unlock();
+			}
+		}
+		return new PersonIdent(identity.name, identity.email);
+	}
+
+	private ReentrantLock getAppLock(GithubApp app) {
+		synchronized (appLocks) {
+			return appLocks.computeIfAbsent(app.getId(), t -> new ReentrantLock());
+		}
+	}
+
+}
@@ -0,0 +1,275 @@
+package usr.skyswimmer.quickff.tools.quickff;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+import usr.skyswimmer.quickff.tools.entities.JournalConfig;
+import usr.skyswimmer.quicktoolsutils.tasks.async.AsyncTaskManager;
+
+/**
+ *
+ * Append-only, memory-mapped journal of accepted events. Records are written
+ * into the mapped file immediately and synced to disk in groups by a
+ * background flusher, so appending never waits for the disk.
+ *
+ * The journal is compacted on startup and whenever it runs full, leaving only
+ * the events that were not completed yet.
+ *
+ */
+public class EventJournal {
+
+	public static final String JOURNAL_FILE = "event-journal.dat";
+
+	private static final int MAGIC = 0x51464a31;
+	private static final int HEADER_SIZE = 8;
+
+	// Record: length, crc, type, id, payload, length excludes itself and the crc
+	private static final int RECORD_HEADER_SIZE = 4 + 4;
+	private static final int RECORD_BODY_HEADER_SIZE = 1 + 8;
+
+	private static final byte TYPE_ACCEPT = 1;
+	private static final byte TYPE_COMPLETE = 2;
+
+	private Logger logger = LogManager.getLogger("quickff");
+
+	private File journalFile;
+	private JournalConfig config;
+
+	private MappedByteBuffer buffer;
+	private int position;
+	private long nextId = 1;
+	private LinkedHashMap<Long, byte[]> pending = new LinkedHashMap<Long, byte[]>();
+
+	private boolean dirty;
+	private boolean flusherStarted;
+
+	public static class Entry {
+		public long id;
+		public byte[] data;
+
+		/**
+		 * Opens a streaming reader for the event payload
+		 *
+		 * @return JsonReader instance
+		 */
+		public JsonReader openReader() {
+			return new JsonReader(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8));
+		}
+	}
+
+	public EventJournal(File dir, JournalConfig config) {
+		this.journalFile = new File(dir, JOURNAL_FILE);
+		this.config = config;
+	}
+
+	/**
+	 * Opens the journal, replays it and compacts it
+	 *
+	 * @return List of events that were accepted but not completed
+	 * @throws IOException If opening the journal fails
+	 */
+	public synchronized List<Entry> open() throws IOException {
+		// Replay
+		pending.clear();
+		if (journalFile.exists()) {
+			try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.READ)) {
+				replay(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			}
+		}
+
+		// Compact
+		rewrite(Math.max(config.initialSizeMb * 1024 * 1024, requiredSize()));
+
+		// Build result
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		for (long id : pending.keySet()) {
+			Entry ent = new Entry();
+			ent.id = id;
+			ent.data = pending.get(id);
+			entries.add(ent);
+		}
+		startFlusher();
+		return entries;
+	}
+
+	/**
+	 * Records an accepted event
+	 *
+	 * @param payload Event payload
+	 * @return Journal ID of the event
+	 * @throws IOException If writing fails
+	 */
+	public synchronized long append(JsonObject payload) throws IOException {
+		long id = nextId++;
+		byte[] data = payload.toString().getBytes(StandardCharsets.UTF_8);
+		pending.put(id, data);
+		write(TYPE_ACCEPT, id, data);
+		return id;
+	}
+
+	/**
+	 * Records the completion of an event
+	 *
+	 * @param id Journal ID of the event
+	 */
+	public synchronized void complete(long id) {
+		if (pending.remove(id) == null)
+			return;
+		try {
+			write(TYPE_COMPLETE, id, new byte[0]);
+		} catch (IOException e) {
+			logger.error("Failed to record completion of journaled event " + id, e);
+		}
+	}
+
+	private void write(byte type, long id, byte[] data) throws IOException {
+		int recordSize = RECORD_HEADER_SIZE + RECORD_BODY_HEADER_SIZE + data.length;
+		if (position + recordSize > buffer.capacity()) {
+			// Full, compact and retry
+			rewrite(Math.max(buffer.capacity(), requiredSize() * 2));
+
+			// Pending events were already written by the compaction
+			if (type == TYPE_COMPLETE || pending.containsKey(id))
+				return;
+			if (position + recordSize > buffer.capacity())
+				throw new IOException("Journal record too large");
+		}
+
+		// Write body first and the length last so torn records are never replayed
+		CRC32 crc = new CRC32();
+		crc.update(type);
+		crc.update(longBytes(id));
+		crc.update(data);
+		buffer.putInt(position + 4, (int) crc.getValue());
+		buffer.put(position + 8, type);
+		buffer.putLong(position + 9, id);
+		buffer.put(position + 17, data);
+		buffer.putInt(position, RECORD_BODY_HEADER_SIZE + data.length);
+		position += recordSize;
+
+		// Wake flusher
+		dirty = true;
+		notifyAll();
+	}
+
+	private void replay(MappedByteBuffer source) {
+		if (source.capacity() < HEADER_SIZE || source.getInt(0) != MAGIC) {
+			logger.error("Event journal has an invalid header, ignoring its contents");
+			return;
+		}
+		int pos = HEADER_SIZE;
+		while (pos + RECORD_HEADER_SIZE + RECORD_BODY_HEADER_SIZE <= source.capacity()) {
+			int length = source.getInt(pos);
+			if (length < RECORD_BODY_HEADER_SIZE || pos + RECORD_HEADER_SIZE + length > source.capacity())
+				break;
+
+			// Read and verify
+			byte type = source.get(pos + 8);
+			long id = source.getLong(pos + 9);
+			byte[] data = new byte[length - RECORD_BODY_HEADER_SIZE];
+			source.get(pos + 17, data);
+			CRC32 crc = new CRC32();
+			crc.update(type);
+			crc.update(longBytes(id));
+			crc.update(data);
+			if (source.getInt(pos + 4) != (int) crc.getValue()) {
+				logger.error("Event journal has a corrupt record at offset " + pos + ", ignoring the remainder");
+				break;
+			}
+
+			// Apply
+			if (type == TYPE_ACCEPT)
+				pending.put(id, data);
+			else if (type == TYPE_COMPLETE)
+				pending.remove(id);
+			nextId = Math.max(nextId, id + 1);
+			pos += RECORD_HEADER_SIZE + length;
+		}
+	}
+
+	private void rewrite(long size) throws IOException {
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("Journal too large");
+
+		// Write pending events to a new file
+		File tmp = new File(journalFile.getPath() + ".tmp");
+		tmp.delete();
+		try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE_NEW)) {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, 1);
+		position = HEADER_SIZE;
+		for (long id : pending.keySet())
+			write(TYPE_ACCEPT, id, pending.get(id));
+		buffer.force();
+
+		// Move into place
+		Files.move(tmp.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		dirty = false;
+	}
+
+	private long requiredSize() {
+		long size = HEADER_SIZE;
+		for (byte[] data : pending.values())
+			size += RECORD_HEADER_SIZE + RECORD_BODY_HEADER_SIZE + data.length;
+		return size;
+	}
+
+	private void startFlusher() {
+		if (flusherStarted)
+			return;
+		flusherStarted = true;
+
+		// Flusher, groups all writes made within the sync interval into one sync
+		AsyncTaskManager.runAsync(() -> {
+			while (true) {
+				MappedByteBuffer toSync;
+				synchronized (this) {
+					try {
+						while (!dirty)
+							wait();
+						long syncAt = System.currentTimeMillis() + config.syncIntervalMs;
+						while (System.currentTimeMillis() < syncAt)
+							wait(Math.max(syncAt - System.currentTimeMillis(), 1));
+					} catch (InterruptedException e) {
+						return;
+					}
+					dirty = false;
+					toSync = buffer;
+				}
+				toSync.force();
+			}
+		});
+	}
+
+	private static byte[] longBytes(long value) {
+		byte[] res = new byte[8];
+		for (int i = 7; i >= 0; i--) {
+			res[i] = (byte) value;
+			value >>= 8;
+		}
+		return res;
+	}
+
+}
@@ -0,0 +1,227 @@
+package usr.skyswimmer.quickff.tools.quickff;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.merge.MergeStrategy;
+import org.eclipse.jgit.merge.ResolveMerger;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.RefLeaseSpec;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+
+
+/**
+ *
+ * Ref-level fast-forward engine, fast-forwards and merges are planned as ref
+ * updates first and then pushed without ever touching a working tree
+ *
+ */
+public class FastForwardEngine {
+
+	private Logger logger = LogManager.getLogger("quickff");
+
+	private String name;
+	private Git client;
+	private Repository repo;
+
+	public static class RefUpdate {
+		public String target;
+		public ObjectId oldId;
+		public ObjectId newId;
+		public boolean merge;
+	}
+
+	public FastForwardEngine(String name, Git client) {
+		this.name = name;
+		this.client = client;
+		this.repo = client.getRepository();
+	}
+
+	/**
+	 * Plans a fast-forward of a target branch to a new commit
+	 *
+	 * @param target Target branch name
+	 * @param oldTip Current commit of the target branch
+	 * @param newTip Commit to fast-forward to
+	 * @return RefUpdate instance
+	 */
+	public RefUpdate planFastForward(String target, ObjectId oldTip, ObjectId newTip) {
+		RefUpdate update = new RefUpdate();
+		update.target = target;
+		update.oldId = oldTip.copy();
+		update.newId = newTip.copy();
+		return update;
+	}
+
+	/**
+	 * Merges a source commit into a target branch in memory and plans the update
+	 * of the target to the merge commit, no working tree is needed
+	 *
+	 * @param target    Target branch name
+	 * @param source    Source branch name
+	 * @param targetTip Current commit of the target branch
+	 * @param sourceTip Commit to merge into the target
+	 * @param author    Author and committer of the merge commit
+	 * @return RefUpdate instance
+	 * @throws IOException If merging fails
+	 */
+	public RefUpdate planMerge(String target, String source, ObjectId targetTip, ObjectId sourceTip,
+			PersonIdent author) throws IOException {
+		// Merge
+		logger.info("[" + name + "] Merging " + source + " into " + target + "...");
+		ObjectId mergeCommit;
+		try (ObjectInserter inserter = repo.newObjectInserter()) {
+			ResolveMerger merger = (ResolveMerger) MergeStrategy.RECURSIVE.newMerger(inserter, repo.getConfig());
+			if (!merger.merge(targetTip, sourceTip)) {
+				String paths = String.join(", ", merger.getUnmergedPaths().isEmpty()
+						? merger.getFailingPaths().keySet()
+						: merger.getUnmergedPaths());
+				throw new IOException(
+						"Merge of " + source + " into " + target + " did not succeed, conflicting paths: " + paths);
+			}
+
+			// Create commit
+			CommitBuilder commit = new CommitBuilder();
+			commit.setTreeId(merger.getResultTreeId());
+			commit.setParentIds(targetTip, sourceTip);
+			commit.setAuthor(author);
+			commit.setCommitter(author);
+			commit.setMessage("Merging " + source + " into " + target);
+			mergeCommit = inserter.insert(commit);
+			inserter.flush();
+		}
+		logger.info("[" + name + "] Merge succeeded, created " + mergeCommit.getName());
+
+		// Plan update
+		RefUpdate update = new RefUpdate();
+		update.target = target;
+		update.oldId = targetTip.copy();
+		update.newId = mergeCommit;
+		update.merge = true;
+		return update;
+	}
+
+	/**
+	 * Pushes a single planned ref update
+	 *
+	 * @param update      Update to push
+	 * @param credentials Push credentials
+	 * @throws IOException If pushing fails
+	 */
+	public void push(RefUpdate update, CredentialsProvider credentials) throws IOException {
+		logger.info("[" + name + "] Pushing " + update.newId.getName() + " to " + update.target + "...");
+		try {
+			checkPushResults(client.push().setRemote("origin")
+					.setRefSpecs(new RefSpec(update.newId.getName() + ":refs/heads/" + update.target))
+					.setRefLeaseSpecs(new RefLeaseSpec("refs/heads/" + update.target, update.oldId.getName()))
+					.setCredentialsProvider(credentials).call());
+		} catch (GitAPIException e) {
+			throw new IOException("Push command failed", e);
+		}
+	}
+
+	/**
+	 * Pushes planned ref updates concurrently, each update is pushed separately
+	 * so the total time is that of the slowest update
+	 *
+	 * @param updates     Updates to push
+	 * @param credentials Push credentials
+	 * @return Map of failed updates and their errors
+	 */
+	public Map<RefUpdate, Exception> pushAll(List<RefUpdate> updates, CredentialsProvider credentials) {
+		Map<RefUpdate, Exception> failures = Collections.synchronizedMap(new LinkedHashMap<RefUpdate, Exception>());
+		CountDownLatch latch = new CountDownLatch(updates.size());
+		for (int i = 0; i < updates.size(); i++) {
+			RefUpdate update = updates.get(i);
+			Runnable task = () -> {
+				try {
+					push(update, credentials);
+				} catch (Exception e) {
+					failures.put(update, e);
+				} finally {
+					latch.countDown();
+				}
+			};
+
+			// Run the last update on the current thread
+			if (i == updates.size() - 1)
+				task.run();
+			else
+				JobThreads.runAsync(task);
+		}
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			for (RefUpdate update : updates)
+				failures.putIfAbsent(update, e);
+		}
+		return failures;
+	}
+
+	/**
+	 * Pushes planned ref updates as one atomic push, either all updates are
+	 * applied by the remote or none are
+	 *
+	 * @param updates     Updates to push
+	 * @param credentials Push credentials
+	 * @return Map of failed updates and their errors
+	 */
+	public Map<RefUpdate, Exception> pushAtomic(List<RefUpdate> updates, CredentialsProvider credentials) {
+		LinkedHashMap<RefUpdate, Exception> failures = new LinkedHashMap<RefUpdate, Exception>();
+		if (updates.isEmpty())
+			return failures;
+
+		// Build refspecs and leases
+		ArrayList<RefSpec> specs = new ArrayList<RefSpec>();
+		ArrayList<RefLeaseSpec> leases = new ArrayList<RefLeaseSpec>();
+		for (RefUpdate update : updates) {
+			specs.add(new RefSpec(update.newId.getName() + ":refs/heads/" + update.target));
+			leases.add(new RefLeaseSpec("refs/heads/" + update.target, update.oldId.getName()));
+		}
+
+		// Push
+		logger.info("[" + name + "] Pushing " + updates.size() + " updates atomically...");
+		try {
+			checkPushResults(client.push().setRemote("origin").setAtomic(true).setRefSpecs(specs)
+					.setRefLeaseSpecs(leases).setCredentialsProvider(credentials).call());
+		} catch (Exception e) {
+			// Nothing was applied
+			IOException err = e instanceof IOException ? (IOException) e
+					: new IOException("Push command failed", e);
+			for (RefUpdate update : updates)
+				failures.put(update, err);
+		}
+		return failures;
+	}
+
+	private void checkPushResults(Iterable<PushResult> results) throws IOException {
+		for (PushResult res : results) {
+			for (RemoteRefUpdate update : res.getRemoteUpdates()) {
+				if (update.getStatus() != RemoteRefUpdate.Status.OK
+						&& update.getStatus() != RemoteRefUpdate.Status.UP_TO_DATE) {
+					String messages = update.getMessage();
+					throw new IOException("Push command failed, remote did not accept the request ("
+							+ update.getRemoteName() + ": " + update.getStatus() + ")",
+							messages != null ? new IOException(messages) : null);
+				}
+			}
+		}
+	}
+
+}
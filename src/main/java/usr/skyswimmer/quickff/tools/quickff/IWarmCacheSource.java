@@ -0,0 +1,21 @@
+package usr.skyswimmer.quickff.tools.quickff;
+
+import java.io.File;
+
+/**
+ *
+ * Source of existing repository caches, used to seed a new cache instead of
+ * cloning the repository from scratch
+ *
+ */
+public interface IWarmCacheSource {
+
+	/**
+	 * Finds an existing cache of a repository
+	 *
+	 * @param repository Repository name
+	 * @return Cache repository directory or null if there is none
+	 */
+	public File findWarmCache(String repository);
+
+}
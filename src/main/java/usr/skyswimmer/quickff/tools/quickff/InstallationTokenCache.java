@@ -0,0 +1,225 @@
+package usr.skyswimmer.quickff.tools.quickff;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.gson.JsonObject;
+
+import usr.skyswimmer.githubwebhooks.apps.GithubApp;
+import usr.skyswimmer.quickff.tools.quickff.metrics.QuickFfMetrics;
+import usr.skyswimmer.quicktoolsutils.tasks.async.AsyncTaskManager;
+
+/**
+ *
+ * Installation access token cache, keeps tokens per app and installation
+ * until shortly before they expire and refreshes tokens of active
+ * installations in the background
+ *
+ * Expiry is taken from the expires_at field GitHub returns with each token,
+ * the refresh margins shrink for tokens with a short lifetime.
+ *
+ */
+public class InstallationTokenCache {
+
+	// Lifetime assumed if GitHub does not return an expiry, also the time after which unused tokens are dropped
+	private static final long TOKEN_LIFETIME = 60 * 60 * 1000;
+
+	// Refresh this long before expiry, tokens closer to expiry are not handed out
+	private static final long REFRESH_MARGIN = 10 * 60 * 1000;
+	private static final long MIN_REMAINING = 5 * 60 * 1000;
+	private static final long RETRY_DELAY = 60 * 1000;
+
+	// Keeps clock skew from refreshing tokens in a tight loop
+	private static final long MIN_REFRESH_DELAY = 10 * 1000;
+
+	private Logger logger = LogManager.getLogger("quickff");
+
+	private HashMap<String, CachedToken> tokens = new HashMap<String, CachedToken>();
+	private boolean refresherStarted;
+
+	private static class CachedToken {
+		public String key;
+		public GithubApp app;
+		public String installationId;
+
+		public String token;
+		public long expiresAt;
+		public long refreshAt;
+		public long minRemaining;
+		public long lastUsed;
+		public CompletableFuture<String> pending;
+	}
+
+	/**
+	 * Retrieves an installation token, minting a new one if none is cached
+	 *
+	 * @param app            GitHub app
+	 * @param installationId Installation ID
+	 * @return Installation access token
+	 * @throws IOException If minting the token fails
+	 */
+	public String getToken(GithubApp app, String installationId) throws IOException {
+		CachedToken ent;
+		CompletableFuture<String> future;
+		boolean mint = false;
+		synchronized (tokens) {
+			// Find entry
+			String key = app.getId() + ":" + installationId;
+			ent = tokens.get(key);
+			if (ent == null) {
+				ent = new CachedToken();
+				ent.key = key;
+				ent.installationId = installationId;
+				tokens.put(key, ent);
+			}
+			ent.app = app;
+			ent.lastUsed = System.currentTimeMillis();
+
+			// Check cached token
+			if (ent.token != null && ent.expiresAt - ent.lastUsed > ent.minRemaining) {
+				QuickFfMetrics.cacheLookup("token", true);
+				return ent.token;
+			}
+			QuickFfMetrics.cacheLookup("token", false);
+
+			// Join or start a request
+			if (ent.pending == null) {
+				ent.pending = new CompletableFuture<String>();
+				mint = true;
+			}
+			future = ent.pending;
+			startRefresher();
+		}
+
+		// Mint if this call started the request
+		if (mint) {
+			logger.info("Authenticating application with server for installation " + installationId + "...");
+			mint(ent);
+		}
+
+		// Wait for result
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Token request failed", e.getCause());
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while waiting for token", e);
+		}
+	}
+
+	private boolean mint(CachedToken ent) {
+		CompletableFuture<String> future;
+		synchronized (tokens) {
+			future = ent.pending;
+		}
+		try {
+			long start = System.currentTimeMillis();
+			JsonObject response = ent.app.appApiRequest("/app/installations/" + ent.installationId + "/access_tokens",
+					"POST", null);
+			if (response == null || !response.has("token"))
+				throw new IOException("Token response of installation " + ent.installationId + " has no token");
+			String token = response.get("token").getAsString();
+			long expiresAt = start + TOKEN_LIFETIME;
+			if (response.has("expires_at") && !response.get("expires_at").isJsonNull()) {
+				try {
+					expiresAt = Instant.parse(response.get("expires_at").getAsString()).toEpochMilli();
+				} catch (DateTimeParseException e) {
+					logger.warn("Invalid token expiry for installation " + ent.installationId
+							+ ", assuming a lifetime of one hour", e);
+				}
+			}
+
+			// Scale margins down for short-lived tokens
+			long lifetime = Math.max(expiresAt - start, 0);
+			synchronized (tokens) {
+				ent.token = token;
+				ent.expiresAt = expiresAt;
+				ent.minRemaining = Math.min(MIN_REMAINING, lifetime / 4);
+				ent.refreshAt = Math.max(expiresAt - Math.min(REFRESH_MARGIN, lifetime / 2),
+						start + MIN_REFRESH_DELAY);
+				ent.pending = null;
+				tokens.notifyAll();
+			}
+			future.complete(token);
+			return true;
+		} catch (Exception e) {
+			synchronized (tokens) {
+				ent.refreshAt = System.currentTimeMillis() + RETRY_DELAY;
+				ent.pending = null;
+
+				// Drop entries that never held a token, the refresher skips them
+				if (ent.token == null)
+					tokens.remove(ent.key, ent);
+			}
+			future.completeExceptionally(e);
+			return false;
+		}
+	}
+
+	private void startRefresher() {
+		if (refresherStarted)
+			return;
+		refresherStarted = true;
+
+		// Refresher, sleeps until the next active token needs to be renewed
+		AsyncTaskManager.runAsync(() -> {
+			while (true) {
+				CachedToken[] toRefresh;
+				synchronized (tokens) {
+					long now = System.currentTimeMillis();
+					long nextCheck = -1;
+					HashMap<String, CachedToken> due = new HashMap<String, CachedToken>();
+					for (CachedToken ent : tokens.values().toArray(t -> new CachedToken[t])) {
+						if (ent.token == null || ent.pending != null)
+							continue;
+						if (now - ent.lastUsed >= TOKEN_LIFETIME) {
+							// Inactive, drop once expired
+							if (now >= ent.expiresAt)
+								tokens.remove(ent.key);
+							else if (nextCheck < 0 || ent.expiresAt - now < nextCheck)
+								nextCheck = ent.expiresAt - now;
+							continue;
+						}
+						long remaining = ent.refreshAt - now;
+						if (remaining <= 0) {
+							ent.pending = new CompletableFuture<String>();
+							due.put(ent.key, ent);
+						} else if (nextCheck < 0 || remaining < nextCheck)
+							nextCheck = remaining;
+					}
+					toRefresh = due.values().toArray(t -> new CachedToken[t]);
+
+					// Wait
+					if (toRefresh.length == 0) {
+						try {
+							if (nextCheck < 0)
+								tokens.wait();
+							else
+								tokens.wait(Math.max(nextCheck, 1));
+						} catch (InterruptedException e) {
+							break;
+						}
+					}
+				}
+
+				// Refresh
+				for (CachedToken ent : toRefresh) {
+					logger.info("Refreshing installation token for installation " + ent.installationId + "...");
+					if (!mint(ent))
+						logger.error("Failed to refresh installation token for installation " + ent.installationId
+								+ ", retrying later");
+				}
+			}
+		});
+	}
+
+}
@@ -0,0 +1,63 @@
+package usr.skyswimmer.quickff.tools.quickff;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ *
+ * Disk throughput budget, callers report the bytes they are about to read or
+ * write and are paced so the average stays within the budget
+ *
+ */
+public class IoBudget {
+
+	private static final long MIN_SLEEP_NANOS = 10000000;
+	private static final long MAX_SLEEP_MILLIS = 100;
+
+	private long bytesPerSecond;
+	private long nextFree;
+
+	/**
+	 * Creates a budget
+	 *
+	 * @param bytesPerSecond Allowed throughput, 0 for unlimited
+	 */
+	public IoBudget(long bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+		this.nextFree = System.nanoTime();
+	}
+
+	/**
+	 * Consumes part of the budget, waits until the bytes fit in the budget
+	 *
+	 * @param bytes     Amount of bytes
+	 * @param cancelled Checked while waiting, waiting stops once it returns true
+	 * @return True if the budget was consumed, false if cancelled
+	 */
+	public boolean consume(long bytes, BooleanSupplier cancelled) {
+		if (bytesPerSecond <= 0 || bytes <= 0)
+			return !cancelled.getAsBoolean();
+
+		// Reserve time slot
+		long until;
+		synchronized (this) {
+			nextFree = Math.max(nextFree, System.nanoTime()) + (long) (bytes * 1000000000d / bytesPerSecond);
+			until = nextFree;
+		}
+
+		// Wait in slices so cancellation is noticed quickly
+		while (true) {
+			if (cancelled.getAsBoolean())
+				return false;
+			long remaining = until - System.nanoTime();
+			if (remaining < MIN_SLEEP_NANOS)
+				return true;
+			try {
+				Thread.sleep(Math.min(remaining / 1000000, MAX_SLEEP_MILLIS));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,49 @@
+package usr.skyswimmer.quickff.tools.quickff;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import usr.skyswimmer.quicktoolsutils.tasks.async.AsyncTaskManager;
+
+/**
+ *
+ * Thread source for runner jobs and the work they fan out (eg. concurrent
+ * pushes), uses virtual threads when enabled and the AsyncTaskManager pool
+ * otherwise
+ *
+ */
+public class JobThreads {
+
+	private static volatile boolean virtual;
+	private static AtomicLong threadIds = new AtomicLong();
+
+	/**
+	 * Selects the thread mode, needs to be called before the first job runs
+	 *
+	 * @param useVirtualThreads True to run jobs on virtual threads
+	 */
+	public static void setVirtual(boolean useVirtualThreads) {
+		virtual = useVirtualThreads;
+	}
+
+	/**
+	 * Checks if jobs run on virtual threads
+	 *
+	 * @return True if virtual threads are used, false otherwise
+	 */
+	public static boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * Runs a task asynchronously
+	 *
+	 * @param task Task to run
+	 */
+	public static void runAsync(Runnable task) {
+		if (virtual)
+			Thread.ofVirtual().name("quickff-job-" + threadIds.incrementAndGet()).start(task);
+		else
+			AsyncTaskManager.runAsync(task);
+	}
+
+}
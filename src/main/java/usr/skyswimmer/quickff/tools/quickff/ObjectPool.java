@@ -0,0 +1,309 @@
+package usr.skyswimmer.quickff.tools.quickff;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+import usr.skyswimmer.quicktoolsutils.io.FileUtils;
+import usr.skyswimmer.quicktoolsutils.io.HashUtils;
+
+/**
+ *
+ * Shared object store of a repository network (an upstream repository and
+ * its forks), cache repositories of the network borrow all fetched objects
+ * from the pool through git alternates
+ *
+ * Fetches of member caches are made into the pool, each member has its own
+ * ref namespace in the pool so the tips of all members are advertised as
+ * haves and new members only fetch the objects the network does not have yet.
+ * Only objects created by runs themselves are stored in the member caches.
+ * Members are registered in the pool when they attach, the pool is deleted
+ * once its last member is removed.
+ *
+ */
+public class ObjectPool {
+
+	public static final String POOL_MARKER = "quickff-pool";
+	public static final String MEMBER_MARKER = "quickff-pool-member";
+	public static final String MEMBERS_DIR = "members";
+
+	private static ConcurrentHashMap<File, ObjectPool> pools = new ConcurrentHashMap<File, ObjectPool>();
+
+	private File directory;
+	private Repository repository;
+	private ReentrantLock lock = new ReentrantLock();
+
+	private long diskUsage;
+	private long measuredPacks = -1;
+
+	private ObjectPool(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Retrieves the pool of a repository network
+	 *
+	 * @param poolBase Directory holding all pools
+	 * @param network  Name of the root repository of the network
+	 * @return ObjectPool instance
+	 */
+	public static ObjectPool forNetwork(File poolBase, String network) {
+		File dir = new File(poolBase, HashUtils.sha256Hash(network.getBytes(StandardCharsets.UTF_8)));
+		return pools.computeIfAbsent(dir.getAbsoluteFile(), t -> new ObjectPool(t));
+	}
+
+	/**
+	 * Retrieves the pool a cache repository borrows objects from
+	 *
+	 * @param memberDir Cache repository directory
+	 * @return ObjectPool instance or null if the repository is not a pool member
+	 * @throws IOException If the alternates of the repository cannot be read
+	 */
+	public static ObjectPool forMember(File memberDir) throws IOException {
+		File gitDir = new File(memberDir, ".git");
+		File alternates = new File(gitDir.isDirectory() ? gitDir : memberDir, "objects/info/alternates");
+		if (!alternates.isFile())
+			return null;
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(alternates.toPath());
+		} catch (IOException e) {
+			throw new IOException("Failed to read object pool of " + memberDir, e);
+		}
+		for (String line : lines) {
+			// Alternates point to the objects folder of the pool
+			File objects = new File(line.trim());
+			File dir = objects.getParentFile();
+			if (dir != null && objects.getName().equals("objects") && new File(dir, POOL_MARKER).exists())
+				return pools.computeIfAbsent(dir.getAbsoluteFile(), t -> new ObjectPool(t));
+		}
+		return null;
+	}
+
+	/**
+	 * Retrieves all pools present on disk
+	 *
+	 * @param poolBase Directory holding all pools
+	 * @return List of ObjectPool instances
+	 */
+	public static List<ObjectPool> getPools(File poolBase) {
+		ArrayList<ObjectPool> res = new ArrayList<ObjectPool>();
+		File[] dirs = poolBase.listFiles(t -> t.isDirectory() && new File(t, POOL_MARKER).exists());
+		if (dirs != null) {
+			for (File dir : dirs)
+				res.add(pools.computeIfAbsent(dir.getAbsoluteFile(), t -> new ObjectPool(t)));
+		}
+		return res;
+	}
+
+	/**
+	 * Retrieves the pool directory
+	 *
+	 * @return Pool directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Checks if the pool is present on disk
+	 *
+	 * @return True if present, false if it was never created or was deleted
+	 */
+	public boolean exists() {
+		return new File(directory, POOL_MARKER).exists();
+	}
+
+	/**
+	 * Retrieves the disk usage of the pool, it is only measured again when the
+	 * packs of the pool changed
+	 *
+	 * @return Disk usage in bytes
+	 */
+	public synchronized long getDiskUsage() {
+		long packs = new File(directory, "objects/pack").lastModified();
+		if (packs != measuredPacks) {
+			measuredPacks = packs;
+			try (Stream<Path> files = Files.walk(directory.toPath())) {
+				diskUsage = files.filter(t -> Files.isRegularFile(t)).mapToLong(t -> t.toFile().length()).sum();
+			} catch (Exception e) {
+				diskUsage = 0;
+			}
+		}
+		return diskUsage;
+	}
+
+	/**
+	 * Locks the pool, fetches into the pool are made while holding the lock
+	 */
+	public void lock() {
+		lock.lock();
+	}
+
+	/**
+	 * Locks the pool if nobody else holds the lock
+	 *
+	 * @return True if locked, false otherwise
+	 */
+	public boolean tryLock() {
+		return lock.tryLock();
+	}
+
+	/**
+	 * Checks if other threads are waiting for the pool lock
+	 *
+	 * @return True if the lock is contended, false otherwise
+	 */
+	public boolean isContended() {
+		return lock.hasQueuedThreads();
+	}
+
+	/**
+	 * Unlocks the pool
+	 */
+	public void unlock() {
+		lock.unlock();
+	}
+
+	/**
+	 * Opens the pool repository, creating it if needed
+	 *
+	 * @return Repository instance
+	 * @throws IOException If opening the pool fails
+	 */
+	public Repository open() throws IOException {
+		lock.lock();
+		try {
+			if (repository != null && directory.isDirectory())
+				return repository;
+			if (!RepositoryFetcher.isRepository(directory)) {
+				try {
+					Git.init().setBare(true).setDirectory(directory).call().close();
+				} catch (GitAPIException e) {
+					throw new IOException("Failed to create object pool", e);
+				}
+			}
+			new File(directory, POOL_MARKER).createNewFile();
+			if (repository != null)
+				repository.close();
+			repository = new FileRepositoryBuilder().setGitDir(directory).setBare().build();
+			return repository;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Makes a cache repository borrow objects from the pool, the repository
+	 * needs to be reopened afterwards
+	 *
+	 * @param member Cache repository
+	 * @param name   Repository name of the member
+	 * @throws IOException If writing the alternates file fails
+	 */
+	public void attach(Repository member, String name) throws IOException {
+		lock.lock();
+		try {
+			// Register first so the pool is not deleted before the member fetched into it
+			Repository pool = open();
+			File members = new File(directory, MEMBERS_DIR);
+			members.mkdirs();
+			Files.writeString(new File(members, getMemberId(name)).toPath(), name);
+			Files.writeString(new File(member.getDirectory(), MEMBER_MARKER).toPath(), name);
+
+			// Borrow objects
+			File info = new File(member.getDirectory(), "objects/info");
+			info.mkdirs();
+			Files.writeString(new File(info, "alternates").toPath(),
+					new File(pool.getDirectory(), "objects").getAbsolutePath() + "\n");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Releases the pool of a cache repository that is about to be deleted
+	 *
+	 * @param memberDir Cache repository directory
+	 * @return True if the pool was deleted as no members are left, false
+	 *         otherwise
+	 * @throws IOException If releasing the pool fails
+	 */
+	public static boolean release(File memberDir) throws IOException {
+		ObjectPool pool = forMember(memberDir);
+		if (pool == null)
+			return false;
+		File gitDir = new File(memberDir, ".git");
+		File marker = new File(gitDir.isDirectory() ? gitDir : memberDir, MEMBER_MARKER);
+		if (!marker.isFile())
+			return false;
+		return pool.removeMember(Files.readString(marker.toPath()));
+	}
+
+	/**
+	 * Retrieves the ref namespace of a member in the pool
+	 *
+	 * @param member Repository name of the member
+	 * @return Ref prefix ending with a slash
+	 */
+	public String getRefPrefix(String member) {
+		return "refs/members/" + getMemberId(member) + "/";
+	}
+
+	private static String getMemberId(String member) {
+		return HashUtils.sha256Hash(member.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Removes the refs of a member, its objects are pruned by the next garbage
+	 * collection of the pool if no other member uses them
+	 *
+	 * @param member Repository name of the member
+	 * @return True if the pool was deleted as no members are left, false
+	 *         otherwise
+	 * @throws IOException If removing the refs fails
+	 */
+	public boolean removeMember(String member) throws IOException {
+		lock.lock();
+		try {
+			if (!exists())
+				return false;
+			Repository pool = open();
+			List<Ref> refs = pool.getRefDatabase().getRefsByPrefix(getRefPrefix(member));
+			for (Ref ref : refs) {
+				RefUpdate update = pool.updateRef(ref.getName());
+				update.setForceUpdate(true);
+				update.delete();
+			}
+
+			new File(new File(directory, MEMBERS_DIR), getMemberId(member)).delete();
+
+			// Delete the pool once no member uses it, it is created again by the next member
+			String[] members = new File(directory, MEMBERS_DIR).list();
+			if ((members != null && members.length != 0)
+					|| !pool.getRefDatabase().getRefsByPrefix("refs/members/").isEmpty())
+				return false;
+			repository.close();
+			repository = null;
+			FileUtils.deleteDir(directory);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+package usr.skyswimmer.quickff.tools.quickff;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import usr.skyswimmer.quickff.tools.entities.AutoFfConfig;
+import usr.skyswimmer.quickff.tools.entities.WebhookPushEventEntity;
+
+/**
+ *
+ * Pre-dispatch push filter, drops pushes that cannot lead to a fast-forward
+ * before any git work is done
+ *
+ * autoff.json is read from the pushed branch itself, so the filter remembers
+ * the configuration found at the tip of each branch it has seen. A push is
+ * only dropped if it continues from that tip, did not touch autoff.json and
+ * the configuration of the branch would not act on it. Branches the filter
+ * has not seen yet are always processed.
+ *
+ */
+public class PushFilter {
+
+	private static final int MAX_BRANCHES = 4096;
+	private static final String CONFIG_FILE = "autoff.json";
+
+	// GitHub lists at most this many commits in a push event
+	private static final int MAX_LISTED_COMMITS = 20;
+
+	private static class BranchConfig {
+		public String tip;
+		public AutoFfConfig config;
+	}
+
+	private LinkedHashMap<String, BranchConfig> knownConfigs = new LinkedHashMap<String, BranchConfig>(16, 0.75f,
+			true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, BranchConfig> eldest) {
+			return size() > MAX_BRANCHES;
+		}
+	};
+
+	/**
+	 * Records the configuration found at the tip of a branch
+	 *
+	 * @param repository Repository name
+	 * @param branch     Branch name
+	 * @param tip        Commit the configuration was read from
+	 * @param config     Parsed configuration, null if the branch has none
+	 */
+	public void update(String repository, String branch, ObjectId tip, AutoFfConfig config) {
+		BranchConfig known = new BranchConfig();
+		known.tip = tip.getName();
+		known.config = config;
+		synchronized (knownConfigs) {
+			knownConfigs.put(repository + ":" + branch, known);
+		}
+	}
+
+	/**
+	 * Checks if a push needs to be processed
+	 *
+	 * @param branch          Branch that was pushed to
+	 * @param push            Push event
+	 * @param mayChangeConfig True if the push may have changed autoff.json
+	 * @return Reason the push can be dropped, or null if it needs to be processed
+	 */
+	public String check(String branch, WebhookPushEventEntity push, boolean mayChangeConfig) {
+		// Deleted branches have nothing to fast-forward
+		String key = push.repository.fullName + ":" + branch;
+		if (push.after.equals(ObjectId.zeroId().getName())) {
+			synchronized (knownConfigs) {
+				knownConfigs.remove(key);
+			}
+			return "branch was deleted";
+		}
+
+		// Check the configuration of the branch
+		synchronized (knownConfigs) {
+			BranchConfig known = knownConfigs.get(key);
+			if (known == null || mayChangeConfig || !known.tip.equals(push.before)) {
+				// Unknown from here on, until the runner reads the configuration again
+				knownConfigs.remove(key);
+				return null;
+			}
+			AutoFfConfig config = known.config;
+			if (config != null && config.enabled && config.matchers.match(branch) != null)
+				return null;
+
+			// Configuration is unchanged at the new tip
+			known.tip = push.after;
+		}
+		return "branch does not match its branch sets";
+	}
+
+	/**
+	 * Checks if a push event may have changed autoff.json, forced pushes and
+	 * pushes without complete commit information are assumed to have changed it
+	 *
+	 * @param hookData Push event payload
+	 * @return True if the configuration may have changed, false otherwise
+	 */
+	public static boolean mayChangeConfig(JsonObject hookData) {
+		if (hookData.has("created") && hookData.get("created").getAsBoolean())
+			return true;
+		if (!hookData.has("forced") || hookData.get("forced").getAsBoolean())
+			return true;
+		if (!hookData.has("commits") || !hookData.get("commits").isJsonArray()
+				|| hookData.getAsJsonArray("commits").size() >= MAX_LISTED_COMMITS)
+			return true;
+		for (JsonElement commit : hookData.getAsJsonArray("commits")) {
+			if (!commit.isJsonObject())
+				return true;
+			JsonObject commitData = commit.getAsJsonObject();
+			for (String list : new String[] { "added", "modified", "removed" }) {
+				if (!commitData.has(list) || !commitData.get(list).isJsonArray())
+					return true;
+				for (JsonElement file : commitData.getAsJsonArray(list)) {
+					if (file.getAsString().equals(CONFIG_FILE))
+						return true;
+				}
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,469 @@
+package usr.skyswimmer.quickff.tools.quickff;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.UUID;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+import usr.skyswimmer.githubwebhooks.apps.GithubApp;
+import usr.skyswimmer.quickff.tools.entities.QuickFfServerConfig;
+import usr.skyswimmer.quickff.tools.entities.WebhookPushEventEntity;
+import usr.skyswimmer.quickff.tools.quickff.metrics.QuickFfMetrics;
+import usr.skyswimmer.quicktoolsutils.tasks.async.AsyncTaskManager;
+
+/**
+ *
+ * Push event dispatcher, runs QuickFF jobs on a fixed amount of workers and
+ * queues events per repository.
+ *
+ * Only one job runs per repository at a time, pending pushes for the same
+ * branch are coalesced so that only the newest push is processed.
+ *
+ * With virtual threads enabled, workers are started on demand for each ready
+ * repository (up to maxVirtualJobs) and exit once no work is left, so idle
+ * workers never park on the queue monitor.
+ *
+ * Accepted pushes are recorded in an event journal. Pushes still pending on
+ * restart are logged and dropped, the webhook library offers no way to resolve
+ * their GitHub app so they need to be redelivered.
+ *
+ */
+public class QuickFfDispatcher {
+
+	private Logger logger = LogManager.getLogger("quickff");
+
+	private QuickFfServerConfig config;
+	private boolean started;
+
+	private Object queueLock = new Object();
+	private HashMap<String, RepositoryQueue> repositoryQueues = new HashMap<String, RepositoryQueue>();
+	private LinkedList<RepositoryQueue> readyQueues = new LinkedList<RepositoryQueue>();
+	private int virtualWorkers;
+
+	private EventJournal journal;
+	private HashMap<String, GithubApp> knownApps = new HashMap<String, GithubApp>();
+
+	// Job status tracking, finished jobs are kept per repository
+	private static final int MAX_FINISHED_JOBS = 25;
+	private HashMap<String, PushJob> jobsById = new HashMap<String, PushJob>();
+	private HashMap<String, LinkedList<PushJob>> finishedJobs = new HashMap<String, LinkedList<PushJob>>();
+
+	private static class PushJob {
+		public String id = UUID.randomUUID().toString();
+		public String state = "queued";
+		public long acceptedAt = System.currentTimeMillis();
+		public long startedAt;
+		public long finishedAt;
+
+		public long journalId;
+		public String appId;
+		public File workingDir;
+		public String branch;
+		public WebhookPushEventEntity push;
+		public GithubApp app;
+	}
+
+	private static class RepositoryQueue {
+		public String name;
+		public boolean running;
+		public PushJob current;
+
+		// Pending jobs by branch, in order of first arrival
+		public LinkedHashMap<String, PushJob> pending = new LinkedHashMap<String, PushJob>();
+
+		public RepositoryQueue(String name) {
+			this.name = name;
+		}
+	}
+
+	public QuickFfDispatcher(QuickFfServerConfig config) {
+		this.config = config;
+		JobThreads.setVirtual(config.virtualThreads);
+		QuickFfMetrics.getRegistry().addCollector(() -> collectMetrics());
+	}
+
+	/**
+	 * Opens the event journal, drops pushes left pending by the previous run and
+	 * starts the worker threads
+	 *
+	 * @param workingDir Server working directory
+	 */
+	public void start(File workingDir) {
+		synchronized (queueLock) {
+			if (started)
+				return;
+			started = true;
+		}
+
+		// Replay journal
+		if (config.journal.enabled) {
+			journal = new EventJournal(workingDir, config.journal);
+			try {
+				for (EventJournal.Entry ent : journal.open()) {
+					// Read record
+					String appId = null;
+					String branch = null;
+					WebhookPushEventEntity push = null;
+					try (JsonReader reader = ent.openReader()) {
+						reader.beginObject();
+						while (reader.hasNext()) {
+							switch (reader.nextName()) {
+							case "app":
+								appId = reader.nextString();
+								break;
+							case "branch":
+								branch = reader.nextString();
+								break;
+							case "push":
+								push = new WebhookPushEventEntity();
+								push.loadFromStream(reader, "journal -> push");
+								break;
+							default:
+								reader.skipValue();
+								break;
+							}
+						}
+						reader.endObject();
+						if (appId == null || branch == null || push == null)
+							throw new IOException("Incomplete journal record");
+					} catch (Exception e) {
+						logger.error("Dropping unreadable journaled event " + ent.id, e);
+						journal.complete(ent.id);
+						continue;
+					}
+
+					// The app cannot be resolved by id, drop the push so it can be redelivered
+					logger.warn("[" + push.repository.fullName + "] Dropping push for branch " + branch + " ("
+							+ push.after + ") left pending by the previous run, app " + appId
+							+ " cannot be resolved on startup, redeliver the webhook to process it");
+					journal.complete(ent.id);
+				}
+			} catch (IOException e) {
+				logger.error("Failed to open event journal, accepted events will not survive restarts", e);
+				journal = null;
+			}
+		}
+
+		// Start workers
+		if (config.virtualThreads) {
+			logger.info("Running QuickFF jobs on virtual threads, up to " + config.maxVirtualJobs + " at a time");
+			synchronized (queueLock) {
+				for (int i = 0; i < readyQueues.size(); i++)
+					startVirtualWorker();
+			}
+			return;
+		}
+		logger.info("Starting " + config.workerThreads + " QuickFF workers...");
+		for (int i = 0; i < config.workerThreads; i++) {
+			AsyncTaskManager.runAsync(() -> runWorker());
+		}
+	}
+
+	/**
+	 * Queues a push event, replaces pending pushes for the same repository and
+	 * branch
+	 *
+	 * @param workingDir Server working directory
+	 * @param branch     Branch that was pushed to
+	 * @param push       Push event
+	 * @param app        GitHub app that received the event
+	 * @return Job ID
+	 */
+	public String dispatch(File workingDir, String branch, WebhookPushEventEntity push, GithubApp app) {
+		// Create job
+		PushJob job = new PushJob();
+		job.appId = app.getId();
+		job.workingDir = workingDir;
+		job.branch = branch;
+		job.push = push;
+		job.app = app;
+
+		// Record in journal
+		if (journal != null) {
+			JsonObject payload = new JsonObject();
+			payload.addProperty("app", job.appId);
+			payload.addProperty("branch", branch);
+			payload.add("push", push.toJson());
+			try {
+				job.journalId = journal.append(payload);
+			} catch (IOException e) {
+				logger.error("[" + push.repository.fullName + "] Failed to journal push for branch " + branch, e);
+			}
+		}
+
+		// Queue
+		synchronized (queueLock) {
+			knownApps.put(job.appId, app);
+			queue(job);
+		}
+		return job.id;
+	}
+
+	/**
+	 * Queues a push event forwarded by another cluster node
+	 *
+	 * @param workingDir Server working directory
+	 * @param appId      ID of the GitHub app that received the event
+	 * @param branch     Branch that was pushed to
+	 * @param push       Push event
+	 * @return Job ID, or null if the app has not delivered an event to this node
+	 *         yet
+	 */
+	public String dispatchForwarded(File workingDir, String appId, String branch, WebhookPushEventEntity push) {
+		GithubApp app;
+		synchronized (queueLock) {
+			app = knownApps.get(appId);
+		}
+		if (app == null)
+			return null;
+		return dispatch(workingDir, branch, push, app);
+	}
+
+	private void queue(PushJob job) {
+		job.state = "queued";
+		jobsById.put(job.id, job);
+		RepositoryQueue queue = repositoryQueues.get(job.push.repository.fullName);
+		if (queue == null) {
+			queue = new RepositoryQueue(job.push.repository.fullName);
+			repositoryQueues.put(queue.name, queue);
+		}
+		PushJob previous = queue.pending.put(job.branch, job);
+		if (previous != null) {
+			// Coalesced with pending push
+			logger.info("[" + queue.name + "] Coalesced pending push for branch " + job.branch + " ("
+					+ previous.push.after + " -> " + job.push.after + ")");
+			finish(previous, "coalesced");
+			complete(previous);
+		} else if (!queue.running && queue.pending.size() == 1) {
+			// Repository was idle, schedule it
+			schedule(queue);
+		}
+	}
+
+	private void schedule(RepositoryQueue queue) {
+		readyQueues.add(queue);
+		if (config.virtualThreads)
+			startVirtualWorker();
+		else
+			queueLock.notify();
+	}
+
+	private void startVirtualWorker() {
+		// One worker per ready repository, surplus workers exit when they find nothing to do
+		if (!started || virtualWorkers >= config.maxVirtualJobs)
+			return;
+		virtualWorkers++;
+		JobThreads.runAsync(() -> runVirtualWorker());
+	}
+
+	private void complete(PushJob job) {
+		if (journal != null && job.journalId != 0)
+			journal.complete(job.journalId);
+	}
+
+	private void runWorker() {
+		while (true) {
+			// Wait for a repository with pending work
+			RepositoryQueue queue;
+			synchronized (queueLock) {
+				while (readyQueues.isEmpty()) {
+					try {
+						queueLock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				queue = readyQueues.removeFirst();
+			}
+			runNext(queue);
+		}
+	}
+
+	private void runVirtualWorker() {
+		while (true) {
+			// Exit once no repository has pending work
+			RepositoryQueue queue;
+			synchronized (queueLock) {
+				if (readyQueues.isEmpty()) {
+					virtualWorkers--;
+					return;
+				}
+				queue = readyQueues.removeFirst();
+			}
+			runNext(queue);
+		}
+	}
+
+	private void runNext(RepositoryQueue queue) {
+		// Take oldest pending job of the repository
+		PushJob job;
+		synchronized (queueLock) {
+			Iterator<PushJob> jobs = queue.pending.values().iterator();
+			job = jobs.next();
+			jobs.remove();
+			queue.running = true;
+			queue.current = job;
+			job.state = "running";
+			job.startedAt = System.currentTimeMillis();
+		}
+		QuickFfMetrics.QUEUE_TIME.observe((job.startedAt - job.acceptedAt) / 1000d);
+
+		// Run
+		boolean success = false;
+		try {
+			success = QuickFfRunner.downloadAndRun(job.workingDir, job.branch, job.push, job.app, config);
+		} catch (Exception e) {
+			QuickFfMetrics.FAILURES.inc("run");
+			logger.error("[" + queue.name + "] An error occurred running QuickFF job for branch " + job.branch, e);
+		} finally {
+			complete(job);
+			synchronized (queueLock) {
+				finish(job, success ? "finished" : "failed");
+				queue.running = false;
+				queue.current = null;
+				if (queue.pending.isEmpty()) {
+					// Done with repository
+					repositoryQueues.remove(queue.name);
+				} else {
+					// Reschedule behind other repositories
+					schedule(queue);
+				}
+			}
+		}
+	}
+
+	private void finish(PushJob job, String state) {
+		job.state = state;
+		job.finishedAt = System.currentTimeMillis();
+
+		// Keep recent jobs only
+		LinkedList<PushJob> finished = finishedJobs.get(job.push.repository.fullName);
+		if (finished == null) {
+			finished = new LinkedList<PushJob>();
+			finishedJobs.put(job.push.repository.fullName, finished);
+		}
+		finished.addFirst(job);
+		while (finished.size() > MAX_FINISHED_JOBS)
+			jobsById.remove(finished.removeLast().id);
+	}
+
+	/**
+	 * Retrieves the status of a job
+	 *
+	 * @param id Job ID
+	 * @return JsonObject instance or null if the job is not known
+	 */
+	public JsonObject getJobStatus(String id) {
+		synchronized (queueLock) {
+			PushJob job = jobsById.get(id);
+			if (job == null)
+				return null;
+			return jobToJson(job);
+		}
+	}
+
+	/**
+	 * Retrieves the queued, running and recently finished jobs of all
+	 * repositories
+	 *
+	 * @return JsonObject instance
+	 */
+	public JsonObject getStatus() {
+		synchronized (queueLock) {
+			JsonObject repos = new JsonObject();
+			int queued = 0;
+			int running = 0;
+
+			// Active repositories
+			for (RepositoryQueue queue : repositoryQueues.values()) {
+				JsonObject repo = getRepositoryStatus(repos, queue.name);
+				for (PushJob job : queue.pending.values()) {
+					repo.getAsJsonArray("queued").add(jobToJson(job));
+					queued++;
+				}
+				if (queue.current != null) {
+					repo.getAsJsonArray("running").add(jobToJson(queue.current));
+					running++;
+				}
+			}
+
+			// Finished jobs
+			for (String name : finishedJobs.keySet()) {
+				JsonArray finished = getRepositoryStatus(repos, name).getAsJsonArray("finished");
+				for (PushJob job : finishedJobs.get(name))
+					finished.add(jobToJson(job));
+			}
+
+			// Build result
+			JsonObject status = new JsonObject();
+			if (config.virtualThreads) {
+				// Virtual workers only exist while there is work
+				status.addProperty("workers", virtualWorkers);
+				status.addProperty("maxVirtualJobs", config.maxVirtualJobs);
+			} else
+				status.addProperty("workers", config.workerThreads);
+			status.addProperty("queued", queued);
+			status.addProperty("running", running);
+			status.add("repositories", repos);
+			return status;
+		}
+	}
+
+	private void collectMetrics() {
+		synchronized (queueLock) {
+			// Queue depth per repository, idle repositories are dropped
+			QuickFfMetrics.QUEUE_DEPTH.clear();
+			HashMap<String, Integer> depths = new HashMap<String, Integer>();
+			int running = 0;
+			for (RepositoryQueue queue : repositoryQueues.values()) {
+				depths.merge(queue.name, queue.pending.size(), Integer::sum);
+				if (queue.current != null)
+					running++;
+			}
+			depths.forEach((name, depth) -> QuickFfMetrics.QUEUE_DEPTH.set(depth, name));
+			QuickFfMetrics.JOBS_RUNNING.set(running);
+		}
+	}
+
+	private JsonObject getRepositoryStatus(JsonObject repos, String name) {
+		if (!repos.has(name)) {
+			JsonObject repo = new JsonObject();
+			repo.add("queued", new JsonArray());
+			repo.add("running", new JsonArray());
+			repo.add("finished", new JsonArray());
+			repos.add(name, repo);
+		}
+		return repos.getAsJsonObject(name);
+	}
+
+	private JsonObject jobToJson(PushJob job) {
+		JsonObject res = new JsonObject();
+		res.addProperty("id", job.id);
+		res.addProperty("repository", job.push.repository.fullName);
+		res.addProperty("branch", job.branch);
+		res.addProperty("commit", job.push.after);
+		res.addProperty("state", job.state);
+		res.addProperty("acceptedAt", job.acceptedAt);
+		if (job.startedAt != 0) {
+			res.addProperty("startedAt", job.startedAt);
+			res.addProperty("queueTimeMs", job.startedAt - job.acceptedAt);
+		}
+		if (job.finishedAt != 0) {
+			res.addProperty("finishedAt", job.finishedAt);
+			if (job.startedAt != 0)
+				res.addProperty("runTimeMs", job.finishedAt - job.startedAt);
+		}
+		return res;
+	}
+
+}
@@ -2,643 +2,1018 @@ package usr.skyswimmer.quickff.tools.quickff;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.URLEncoder;
-import java.util.HashMap;
-import java.util.List;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Stream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import usr.skyswimmer.githubwebhooks.apps.GithubApp;
-import usr.skyswimmer.githubwebhooks.apps.GithubAppInstallationTokens;
 import usr.skyswimmer.quickff.tools.entities.AutoFfConfig;
+import usr.skyswimmer.quickff.tools.entities.BranchMatcherIndex;
+import usr.skyswimmer.quickff.tools.entities.QuickFfServerConfig;
 import usr.skyswimmer.quickff.tools.entities.WebhookPushEventEntity;
+import usr.skyswimmer.quickff.tools.quickff.backend.GithubAppBackend;
+import usr.skyswimmer.quickff.tools.quickff.backend.IGithubBackend;
+import usr.skyswimmer.quickff.tools.quickff.eviction.ICacheEntry;
+import usr.skyswimmer.quickff.tools.quickff.eviction.IEvictionPolicy;
+import usr.skyswimmer.quickff.tools.quickff.metrics.QuickFfMetrics;
 import usr.skyswimmer.quicktoolsutils.io.FileUtils;
 import usr.skyswimmer.quicktoolsutils.io.HashUtils;
-import usr.skyswimmer.quicktoolsutils.patterns.PatternMatchResult;
-import usr.skyswimmer.quicktoolsutils.patterns.WildcardPatternMatcher;
 import usr.skyswimmer.quicktoolsutils.tasks.async.AsyncTaskManager;
 
-import org.eclipse.jgit.api.CreateBranchCommand.SetupUpstreamMode;
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.ListBranchCommand.ListMode;
-import org.eclipse.jgit.api.MergeCommand.FastForwardMode;
-import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectLoader;
-import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.CredentialsProvider;
-import org.eclipse.jgit.transport.PushResult;
-import org.eclipse.jgit.transport.RemoteRefUpdate;
-import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.eclipse.jgit.treewalk.TreeWalk;
-import org.eclipse.jgit.treewalk.filter.PathFilter;
 
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 
 public class QuickFfRunner {
 
+	private static final long CACHE_CLEANER_RETRY = 60 * 1000;
+
 	private static Logger logger;
 
 	private static boolean inited;
 	private static File cacheBase;
-	private static HashMap<String, RepoMemoryData> repositoryMemory = new HashMap<String, RepoMemoryData>();
+	private static File poolBase;
+	private static RepositoryCacheIndex cacheIndex;
+	private static IGithubBackend backend = new GithubAppBackend();
+	private static IWarmCacheSource warmCacheSource;
+	private static AutoFfConfigCache configCache = new AutoFfConfigCache();
+	private static PushFilter pushFilter = new PushFilter();
+	private static ConcurrentHashMap<String, RepoMemoryData> repositoryMemory = new ConcurrentHashMap<String, RepoMemoryData>();
+
+	private static QuickFfServerConfig serverConfig;
+	private static IEvictionPolicy evictionPolicy;
+	private static RepositoryMaintenance maintenance;
+	private static Object cacheCleanerLock = new Object();
+	private static boolean cacheCleanerSignalled;
+
+	private static class RunPlan {
+		public RepoMemoryData repoMemory;
+		public WebhookPushEventEntity push;
+		public GithubApp app;
+
+		public Git client;
+		public FastForwardEngine engine;
+		public RevCommit currentCommit;
+		public boolean atomic;
+
+		public ArrayList<FastForwardEngine.RefUpdate> updates = new ArrayList<FastForwardEngine.RefUpdate>();
+		public String failedBranches = "";
+
+		public void addFailure(String target, Exception e) {
+			QuickFfMetrics.BRANCH_UPDATES.inc("failed");
+			if (!failedBranches.isEmpty())
+				failedBranches += "\n";
+			failedBranches += " - " + target + ": " + e.getMessage();
+		}
+	}
 
-	private static class RepoMemoryData {
-		public Object lock = new Object();
+	/**
+	 *
+	 * Registry entry of a cached repository
+	 *
+	 * Runs hold a lease on the entry, leases are only taken and returned
+	 * through ConcurrentHashMap.compute on the registry, so an entry can only be
+	 * claimed for eviction while nobody holds a lease. Runs that arrive during
+	 * an eviction take a lease on the same entry and wait for the eviction to
+	 * finish, the evictor then hands the entry over instead of removing it.
+	 *
+	 */
+	private static class RepoMemoryData implements ICacheEntry {
+		public ReentrantLock lock = new ReentrantLock();
 
 		public String name;
 		public File repoDir;
 
-		public boolean isOpen;
-		public boolean deleted;
+		// Only modified within compute calls on the registry
+		public volatile int leases;
+		public volatile CountDownLatch eviction;
 
-		public long lastTouched;
+		public volatile long lastTouched;
+		public volatile long useCount;
+		public volatile long diskUsage;
+
+		// Disk usage is measured by the cache cleaner, outside of runs
+		public volatile boolean diskUsageStale = true;
+
+		public boolean shallowGraphReported;
 
 		public RepoMemoryData(String name, File repoDir) {
 			this.name = name;
 			this.repoDir = repoDir;
-			repoDir.mkdirs();
 		}
 
-		public void open() {
-			isOpen = true;
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public long getLastUsed() {
+			return lastTouched;
+		}
+
+		@Override
+		public long getUseCount() {
+			return useCount;
+		}
+
+		@Override
+		public long getDiskUsage() {
+			return diskUsage;
+		}
+	}
+
+	/**
+	 *
+	 * Snapshot of a registry entry for sorting, runs keep changing the usage of
+	 * the entry itself while the cleaner sorts
+	 *
+	 */
+	private static class EvictionCandidate implements ICacheEntry {
+		public RepoMemoryData repo;
+
+		private long lastUsed;
+		private long useCount;
+		private long diskUsage;
+
+		public EvictionCandidate(RepoMemoryData repo) {
+			this.repo = repo;
+			this.lastUsed = repo.lastTouched;
+			this.useCount = repo.useCount;
+			this.diskUsage = repo.diskUsage;
+		}
+
+		@Override
+		public String getName() {
+			return repo.name;
+		}
+
+		@Override
+		public long getLastUsed() {
+			return lastUsed;
 		}
 
-		public void close() {
-			lastTouched = System.currentTimeMillis();
-			isOpen = false;
+		@Override
+		public long getUseCount() {
+			return useCount;
+		}
+
+		@Override
+		public long getDiskUsage() {
+			return diskUsage;
 		}
 	}
 
-	private static void init(File workingDirBase) {
+	private static synchronized void init(File workingDirBase, QuickFfServerConfig config) {
 		if (inited)
 			return;
 		inited = true;
 
 		// Set up logger
 		logger = LogManager.getLogger("quickff");
+		serverConfig = config;
+		evictionPolicy = IEvictionPolicy.forName(config.cache.evictionPolicy);
 
-		// Go through cache
+		// Load cache index
 		cacheBase = new File(workingDirBase, "repository-temp");
 		cacheBase.mkdirs();
-		for (File dir : cacheBase.listFiles(t -> t.isDirectory())) {
-			// Remove
-			logger.info("Clearing cache: " + dir.getName());
-			FileUtils.deleteDir(dir);
+		cacheIndex = new RepositoryCacheIndex(cacheBase);
+		poolBase = new File(workingDirBase, "object-pools");
+		cacheIndex.load();
+		for (RepositoryCacheIndex.Entry ent : cacheIndex.getEntries()) {
+			logger.info("Restoring cache: " + ent.directory + " (" + ent.name + ")");
+			RepoMemoryData repo = new RepoMemoryData(ent.name, new File(cacheBase, ent.directory));
+			repo.lastTouched = ent.lastUsed;
+			repo.useCount = ent.useCount;
+			repositoryMemory.put(ent.name, repo);
 		}
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> cacheIndex.flush()));
 
-		// Cache remover
+		// Cache remover, sleeps until the next repository expires or a run finishes
+		// Also writes the cache index, runs only update it in memory
 		AsyncTaskManager.runAsync(() -> {
 			while (true) {
-				// Go through repositories
-				RepoMemoryData[] repos;
-				synchronized (repositoryMemory) {
-					repos = repositoryMemory.values().toArray(t -> new RepoMemoryData[t]);
+				long nextCheck;
+				try {
+					nextCheck = cleanCache();
+				} catch (Exception e) {
+					logger.error("Cache cleanup failed", e);
+					nextCheck = CACHE_CLEANER_RETRY;
 				}
-				for (RepoMemoryData repo : repos) {
-					// Check first outside of lock to avoid unneeded blocking
-					if (!repo.isOpen && (System.currentTimeMillis() - repo.lastTouched) >= (60 * 60 * 1000)) {
-						// Clear after an hour
-						synchronized (repo.lock) {
-							// Re-check just in case
-							if (!repo.isOpen && (System.currentTimeMillis() - repo.lastTouched) >= (60 * 60 * 1000)) {
-								// Delete folder
-								logger.info("Cleaning repository " + repo.name + ": not touched in the last hour...");
-								if (repo.repoDir.exists())
-									FileUtils.deleteDir(repo.repoDir);
-								repo.deleted = true;
-
-								// Remove from memory
-								synchronized (repositoryMemory) {
-									repositoryMemory.remove(repo.name);
-								}
-							}
+				cacheIndex.flush();
+				synchronized (cacheCleanerLock) {
+					try {
+						if (!cacheCleanerSignalled) {
+							if (nextCheck < 0)
+								cacheCleanerLock.wait();
+							else
+								cacheCleanerLock.wait(Math.max(nextCheck, 1));
 						}
+						cacheCleanerSignalled = false;
+					} catch (InterruptedException e) {
+						break;
 					}
 				}
+			}
+		});
+
+		// Maintenance, only touches repositories nobody uses
+		if (config.maintenance.enabled) {
+			maintenance = new RepositoryMaintenance(config.maintenance);
+			AsyncTaskManager.runAsync(() -> {
+				while (true) {
+					try {
+						Thread.sleep(config.maintenance.checkIntervalSeconds * 1000L);
+					} catch (InterruptedException e) {
+						break;
+					}
+					try {
+						runMaintenance();
+					} catch (Exception e) {
+						logger.error("Repository maintenance failed", e);
+					}
+				}
+			});
+		}
+	}
 
-				// Wait
+	private static void runMaintenance() {
+		// Caches
+		long now = System.currentTimeMillis();
+		for (RepoMemoryData repo : repositoryMemory.values().toArray(t -> new RepoMemoryData[t])) {
+			if (repo.leases != 0 || repo.eviction != null
+					|| now - repo.lastTouched < serverConfig.maintenance.idleSeconds * 1000L
+					|| maintenance.isRecent(repo.repoDir))
+				continue;
+
+			// Lease so the cache cannot be evicted, skip it if a run holds the lock
+			if (!tryLease(repo))
+				continue;
+			try {
+				if (!repo.lock.tryLock())
+					continue;
 				try {
-					Thread.sleep(1000);
-				} catch (InterruptedException e) {
+					maintainCache(repo);
+				} finally {
+					repo.lock.unlock();
+				}
+			} finally {
+				release(repo);
+			}
+		}
+
+		// Object pools, fetches into a pool wait for its lock so maintenance yields to them
+		for (ObjectPool pool : ObjectPool.getPools(poolBase)) {
+			if (maintenance.isRecent(pool.getDirectory()))
+				continue;
+			RepositoryMaintenance.Task task = maintenance.checkPool(pool.getDirectory());
+			if (task == null || !pool.tryLock())
+				continue;
+			try {
+				// Deleted meanwhile as its last member was evicted
+				if (!pool.exists())
+					continue;
+				runMaintenanceTask("object pool " + pool.getDirectory().getName(), pool.open(), task, false,
+						() -> pool.isContended());
+			} catch (IOException e) {
+				QuickFfMetrics.MAINTENANCE_RUNS.inc("failed");
+				logger.error("Maintenance of object pool " + pool.getDirectory().getName() + " failed", e);
+			} finally {
+				pool.unlock();
+			}
+		}
+	}
+
+	private static void maintainCache(RepoMemoryData repo) {
+		if (!RepositoryFetcher.isRepository(repo.repoDir))
+			return;
+		try (Git client = Git.open(repo.repoDir)) {
+			ObjectPool pool = ObjectPool.forMember(repo.repoDir);
+			// Caches fetched before the filter was recorded are recognized by the clone strategy
+			boolean partial = serverConfig.clone.filter != null || RepositoryFetcher.isPartial(client.getRepository());
+			RepositoryMaintenance.Task task = maintenance.checkCache(client.getRepository(),
+					pool == null ? null : pool.getDirectory(), partial);
+			if (task == null)
+				return;
+
+			// Runs waiting for the repository hold a lease, stop as soon as one arrives
+			runMaintenanceTask(repo.name, client.getRepository(), task, true, () -> repo.leases > 1);
+			repo.diskUsageStale = true;
+		} catch (IOException e) {
+			QuickFfMetrics.MAINTENANCE_RUNS.inc("failed");
+			logger.error("[" + repo.name + "] Maintenance failed", e);
+		}
+	}
+
+	private static void runMaintenanceTask(String name, Repository repo, RepositoryMaintenance.Task task,
+			boolean exclusive, BooleanSupplier cancelled) throws IOException {
+		logger.info("[" + name + "] Running maintenance: " + task.reason + "...");
+		long start = System.nanoTime();
+		if (maintenance.run(repo, task, exclusive, cancelled)) {
+			QuickFfMetrics.MAINTENANCE_RUNS.inc("completed");
+			QuickFfMetrics.MAINTENANCE_DURATION.observeSince(start);
+			logger.info("[" + name + "] Maintenance completed in "
+					+ String.format("%.1f", (System.nanoTime() - start) / 1000000000d) + "s");
+		} else {
+			QuickFfMetrics.MAINTENANCE_RUNS.inc("cancelled");
+			logger.info("[" + name + "] Maintenance interrupted, the repository is in use");
+		}
+	}
+
+	private static void signalCacheCleaner() {
+		synchronized (cacheCleanerLock) {
+			cacheCleanerSignalled = true;
+			cacheCleanerLock.notify();
+		}
+	}
+
+	private static long cleanCache() {
+		// Go through repositories
+		RepoMemoryData[] repos = repositoryMemory.values().toArray(t -> new RepoMemoryData[t]);
+		long maxIdle = serverConfig.cache.maxIdleMinutes * 60 * 1000;
+		long maxDisk = serverConfig.cache.maxDiskUsageMb * 1024 * 1024;
+		long now = System.currentTimeMillis();
+		long nextCheck = -1;
+		long totalDiskUsage = 0;
+		ArrayList<EvictionCandidate> candidates = new ArrayList<EvictionCandidate>();
+		for (RepoMemoryData repo : repos) {
+			// Measure caches changed since the last check
+			if (repo.diskUsageStale && repo.eviction == null) {
+				repo.diskUsageStale = false;
+				repo.diskUsage = measureDiskUsage(repo.repoDir);
+			}
+			totalDiskUsage += repo.diskUsage;
+			if (repo.leases != 0 || repo.eviction != null || serverConfig.cache.pinned.contains(repo.name))
+				continue;
+
+			// Check expiry
+			if (maxIdle > 0) {
+				long remaining = repo.lastTouched + maxIdle - now;
+				if (remaining <= 0) {
+					long freed = evict(repo,
+							"not touched in the last " + serverConfig.cache.maxIdleMinutes + " minutes");
+					if (freed >= 0)
+						totalDiskUsage -= freed;
+					continue;
+				}
+				if (nextCheck < 0 || remaining < nextCheck)
+					nextCheck = remaining;
+			}
+			candidates.add(new EvictionCandidate(repo));
+		}
+
+		// Object pools count against the budget as well, they shrink as their members go
+		for (ObjectPool pool : ObjectPool.getPools(poolBase))
+			totalDiskUsage += pool.getDiskUsage();
+
+		// Check disk budget
+		if (maxDisk > 0 && totalDiskUsage > maxDisk) {
+			candidates.sort(evictionPolicy);
+			for (EvictionCandidate candidate : candidates) {
+				if (totalDiskUsage <= maxDisk)
 					break;
+				long freed = evict(candidate.repo,
+						"cache is over its disk budget (" + evictionPolicy.getName() + " eviction)");
+				if (freed >= 0)
+					totalDiskUsage -= freed;
+			}
+		}
+		return nextCheck;
+	}
+
+	private static long evict(RepoMemoryData repo, String reason) {
+		// Claim the entry, only possible while nobody holds a lease
+		CountDownLatch eviction = new CountDownLatch(1);
+		repositoryMemory.computeIfPresent(repo.name, (name, current) -> {
+			if (current == repo && current.leases == 0 && current.eviction == null)
+				current.eviction = eviction;
+			return current;
+		});
+		if (repo.eviction != eviction)
+			return -1;
+		long freed = repo.diskUsage;
+
+		// Delete folder
+		logger.info("Cleaning repository " + repo.name + ": " + reason + "...");
+		try {
+			// Release the refs the cache holds in its object pool, the pool goes with its last member
+			try {
+				ObjectPool pool = ObjectPool.forMember(repo.repoDir);
+				if (pool != null) {
+					long poolUsage = pool.getDiskUsage();
+					if (pool.removeMember(repo.name)) {
+						logger.info("Removed object pool " + pool.getDirectory().getName()
+								+ ", its last member was " + repo.name);
+						freed += poolUsage;
+					}
 				}
+			} catch (IOException e) {
+				logger.error("Failed to release object pool refs of " + repo.name, e);
 			}
+			if (repo.repoDir.exists())
+				FileUtils.deleteDir(repo.repoDir);
+			if (maintenance != null)
+				maintenance.forget(repo.repoDir);
+			cacheIndex.remove(repo.name);
+		} finally {
+			// Remove from memory, or hand over to runs that arrived meanwhile
+			repositoryMemory.computeIfPresent(repo.name, (name, current) -> {
+				current.eviction = null;
+				if (current.leases == 0)
+					return null;
+				current.diskUsage = 0;
+				return current;
+			});
+			eviction.countDown();
+		}
+		QuickFfMetrics.LOCK_WAIT.remove(repo.name);
+		QuickFfMetrics.LOCK_WAIT_TOTAL.remove(repo.name);
+		return freed;
+	}
+
+	private static RepoMemoryData acquire(String name) throws IOException {
+		RepoMemoryData repo = repositoryMemory.compute(name, (key, current) -> {
+			if (current == null)
+				current = new RepoMemoryData(key, new File(cacheBase,
+						HashUtils.sha256Hash(key.getBytes(StandardCharsets.UTF_8))));
+			current.leases++;
+			return current;
+		});
+
+		// Wait for a running eviction to hand the entry over
+		CountDownLatch eviction = repo.eviction;
+		if (eviction != null) {
+			try {
+				eviction.await();
+			} catch (InterruptedException e) {
+				release(repo);
+				throw new IOException("Interrupted while waiting for eviction of " + name, e);
+			}
+		}
+		repo.repoDir.mkdirs();
+		return repo;
+	}
+
+	private static boolean tryLease(RepoMemoryData repo) {
+		// Only leases the entry if nobody else holds one
+		boolean[] leased = new boolean[1];
+		repositoryMemory.computeIfPresent(repo.name, (name, current) -> {
+			if (current == repo && current.leases == 0 && current.eviction == null) {
+				current.leases++;
+				leased[0] = true;
+			}
+			return current;
+		});
+		return leased[0];
+	}
+
+	private static void release(RepoMemoryData repo) {
+		repositoryMemory.computeIfPresent(repo.name, (name, current) -> {
+			current.leases--;
+			return current;
 		});
 	}
 
-	public static void downloadAndRun(File workingDirBase, String branch, WebhookPushEventEntity push, GithubApp app) {
+	private static long measureDiskUsage(File dir) {
+		try (Stream<Path> files = Files.walk(dir.toPath())) {
+			return files.filter(t -> Files.isRegularFile(t)).mapToLong(t -> t.toFile().length()).sum();
+		} catch (IOException | UncheckedIOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Replaces the GitHub backend used by runs, needs to be called before the
+	 * first run
+	 *
+	 * @param backend Backend to use
+	 */
+	public static void setBackend(IGithubBackend backend) {
+		QuickFfRunner.backend = backend;
+	}
+
+	/**
+	 * Sets the source used to seed new repository caches, needs to be called
+	 * before the first run
+	 *
+	 * @param source Warm cache source, null to always clone from origin
+	 */
+	public static void setWarmCacheSource(IWarmCacheSource source) {
+		warmCacheSource = source;
+	}
+
+	/**
+	 * Retrieves the push filter, which knows the configurations of branches that
+	 * were run before
+	 *
+	 * @return PushFilter instance
+	 */
+	public static PushFilter getPushFilter() {
+		return pushFilter;
+	}
+
+	/**
+	 * Runs QuickFF for a push event
+	 *
+	 * @param workingDirBase Server working directory
+	 * @param branch         Branch that was pushed to
+	 * @param push           Push event
+	 * @param app            GitHub app that received the event
+	 * @param serverConfig   Server configuration
+	 * @return True if the run completed without errors, false otherwise
+	 */
+	public static boolean downloadAndRun(File workingDirBase, String branch, WebhookPushEventEntity push,
+			GithubApp app, QuickFfServerConfig serverConfig) {
 		// Init
-		init(workingDirBase);
+		init(workingDirBase, serverConfig);
+		long runStart = System.nanoTime();
 
-		// Set up locks
+		// Lease repository, it cannot be evicted until the lease is returned
 		RepoMemoryData repoMemory;
 		try {
-			synchronized (repositoryMemory) {
-				if (!repositoryMemory.containsKey(push.repository.fullName))
-					repositoryMemory.put(push.repository.fullName, new RepoMemoryData(push.repository.fullName,
-							new File(cacheBase, HashUtils.sha256Hash(push.repository.fullName.getBytes("UTF-8")))));
-				repoMemory = repositoryMemory.get(push.repository.fullName);
-				repoMemory.open();
-			}
-
+			repoMemory = acquire(push.repository.fullName);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 
-		// Synchronize to repository
-		synchronized (repoMemory.lock) {
+		// Plan updates while holding the repository lock
+		RunPlan plan = null;
+		boolean success = true;
+		try {
+			// Not a monitor so virtual threads do not pin their carrier while fetching
+			long lockStart = System.nanoTime();
+			repoMemory.lock.lock();
 			try {
-				// Check deleted
-				if (repoMemory.deleted) {
-					// We just missed the lock from the repo cleanup, call again
-					downloadAndRun(workingDirBase, branch, push, app);
-					return;
-				}
+				// Record lock wait
+				double lockWait = (System.nanoTime() - lockStart) / 1000000000d;
+				QuickFfMetrics.LOCK_WAIT.set(lockWait, repoMemory.name);
+				QuickFfMetrics.LOCK_WAIT_TOTAL.add(lockWait, repoMemory.name);
 
 				// Log start
 				logger.info("Starting QuickFF runner for repository " + push.repository.fullName + " for branch "
 						+ branch + "...");
+				try {
+					plan = planRun(repoMemory, branch, push, app, serverConfig);
+				} catch (Exception e) {
+					success = false;
+					QuickFfMetrics.FAILURES.inc("plan");
+					logger.error("[" + repoMemory.name + "] An error occurred running QuickFF, cancelled.", e);
+				}
+			} finally {
+				repoMemory.lock.unlock();
+			}
 
-				// Get credentials
+			// Push outside of the lock, the lease keeps the repository from being evicted meanwhile
+			if (plan != null) {
 				try {
-					// Prepare repository
-					logger.info("[" + repoMemory.name + "] Preparing repository...");
-					File repoPath = repoMemory.repoDir;
-					File gitCache = new File(repoPath, ".git");
-					Git client = null;
-					try {
-						if (!gitCache.exists()) {
-							// Clone
-							logger.info("[" + repoMemory.name + "] Cloning " + repoMemory.name + "...");
-							client = Git.cloneRepository().setURI(push.repository.httpUrl).setDirectory(repoPath)
-									.setCredentialsProvider(createCredentialProvider(repoMemory, app,
-											push.installation.id, "Cloning " + repoMemory.name + "..."))
-									.setNoCheckout(true).call();
-							logger.info("[" + repoMemory.name + "] Completed successfully!");
-						} else {
-							// Fetch
-							logger.info("[" + repoMemory.name + "] Fetching " + repoMemory.name + "...");
-							client = Git.open(repoPath);
-							client.fetch().setCredentialsProvider(createCredentialProvider(repoMemory, app,
-									push.installation.id, "Fetching " + repoMemory.name + "...")).call();
-							logger.info("[" + repoMemory.name + "] Completed successfully!");
-						}
+					success = pushPlan(plan);
+				} catch (Exception e) {
+					success = false;
+					QuickFfMetrics.FAILURES.inc("push");
+					logger.error("[" + repoMemory.name + "] An error occurred running QuickFF, cancelled.", e);
+				} finally {
+					plan.client.close();
+				}
+			}
+		} finally {
+			// Update usage while still holding the lease, then return it
+			long[] usage = new long[2];
+			repositoryMemory.computeIfPresent(repoMemory.name, (name, current) -> {
+				current.lastTouched = System.currentTimeMillis();
+				current.useCount++;
+				usage[0] = current.lastTouched;
+				usage[1] = current.useCount;
+				return current;
+			});
+			repoMemory.diskUsageStale = true;
+			cacheIndex.touch(repoMemory.name, repoMemory.repoDir, usage[0], usage[1]);
+			release(repoMemory);
+			signalCacheCleaner();
+		}
+		QuickFfMetrics.RUN_DURATION.observeSince(runStart);
+		QuickFfMetrics.RUNS.inc(success ? "success" : "failure");
+		return success;
+	}
 
-						// Get repository
-						logger.info("[" + repoMemory.name + "] Loading repository...");
-						Repository repo = client.getRepository();
+	private static RunPlan planRun(RepoMemoryData repoMemory, String branch, WebhookPushEventEntity push,
+			GithubApp app, QuickFfServerConfig serverConfig) throws Exception {
+		// Prepare repository
+		logger.info("[" + repoMemory.name + "] Preparing repository...");
+		RepositoryFetcher fetcher = new RepositoryFetcher(repoMemory.name, repoMemory.repoDir,
+				serverConfig.clone);
+		long stageStart = System.nanoTime();
+		Git client = fetcher.open(push.repository.httpUrl);
+		QuickFfMetrics.STAGE_DURATION.observeSince(stageStart, "open");
+		QuickFfMetrics.cacheLookup("repository", !fetcher.isFresh());
+		boolean keepOpen = false;
+		try {
+			// Share objects with the rest of the repository network
+			if (fetcher.isFresh() && fetcher.getPool() == null && serverConfig.cache.objectPools) {
+				try {
+					String network = findNetwork(app, push);
+					fetcher.usePool(ObjectPool.forNetwork(poolBase, network));
+					client = fetcher.open(push.repository.httpUrl);
+					logger.info("[" + repoMemory.name + "] Using object pool of repository network " + network);
+				} catch (IOException e) {
+					logger.warn("[" + repoMemory.name + "] Could not set up object pool, using a standalone cache",
+							e);
+				}
+			}
 
-						// Load ref
-						logger.info("[" + repoMemory.name + "] Finding branch object....");
-						ObjectId id = repo.resolve("refs/remotes/origin/" + branch);
-						if (id == null) {
-							// Close
-							logger.info("[" + repoMemory.name + "] Branch not found, exiting...");
-							return;
-						}
+			// Seed new caches from an existing cache, for example the one of the previous owner
+			if (fetcher.isFresh() && warmCacheSource != null) {
+				File warmCache = warmCacheSource.findWarmCache(repoMemory.name);
+				if (warmCache != null) {
+					logger.info("[" + repoMemory.name + "] Seeding repository cache from " + warmCache + "...");
+					stageStart = System.nanoTime();
+					if (fetcher.seedFrom(warmCache))
+						QuickFfMetrics.STAGE_DURATION.observeSince(stageStart, "seed");
+				}
+			}
 
-						// Load autoff.json
-						logger.info("[" + repoMemory.name + "] Finding configuration...");
-						RevWalk revWalk = new RevWalk(repo);
-						RevCommit currentCommit = revWalk.parseCommit(id);
-						revWalk.close();
-						RevTree tree = currentCommit.getTree();
-						TreeWalk treeWalk = new TreeWalk(repo);
-						treeWalk.addTree(tree);
-						treeWalk.setRecursive(true);
-						treeWalk.setFilter(PathFilter.create("autoff.json"));
-						if (!treeWalk.next()) {
-							// Not found
-							treeWalk.close();
+			// Fetch pushed branch, unless the pushed commit is already present
+			if (fetcher.updateFromPush(branch, push.after)) {
+				QuickFfMetrics.cacheLookup("commit", true);
+				logger.info("[" + repoMemory.name + "] Pushed commit " + push.after
+						+ " is already present, skipped fetching " + branch);
+			} else {
+				QuickFfMetrics.cacheLookup("commit", false);
+				logger.info("[" + repoMemory.name + "] Fetching " + branch + "...");
+				CredentialsProvider credentials = createCredentialProvider(repoMemory, app, push.installation.id,
+						"Fetching " + branch + "...");
+				stageStart = System.nanoTime();
+				fetcher.fetch(Arrays.asList(branch), credentials);
+				QuickFfMetrics.STAGE_DURATION.observeSince(stageStart, "fetch");
+				logger.info("[" + repoMemory.name + "] Completed successfully!");
+			}
 
-							// Close
-							logger.info("[" + repoMemory.name + "] No autoff.json configuration, exiting...");
-							return;
-						}
+			// Get repository
+			logger.info("[" + repoMemory.name + "] Loading repository...");
+			Repository repo = client.getRepository();
+
+			// Load ref
+			logger.info("[" + repoMemory.name + "] Finding branch object....");
+			ObjectId id = repo.resolve("refs/remotes/origin/" + branch);
+			if (id == null) {
+				// Close
+				logger.info("[" + repoMemory.name + "] Branch not found, exiting...");
+				return null;
+			}
+
+			// Load autoff.json
+			logger.info("[" + repoMemory.name + "] Finding configuration...");
+			stageStart = System.nanoTime();
+			RevWalk revWalk = new RevWalk(repo);
+			RevCommit currentCommit = revWalk.parseCommit(id);
+			revWalk.close();
+			RevTree tree = currentCommit.getTree();
+			TreeWalk treeWalk = TreeWalk.forPath(repo, "autoff.json", tree);
+			if (treeWalk == null) {
+				// Close
+				QuickFfMetrics.STAGE_DURATION.observeSince(stageStart, "config");
+				pushFilter.update(repoMemory.name, branch, id, null);
+				logger.info("[" + repoMemory.name + "] No autoff.json configuration, exiting...");
+				return null;
+			}
+
+			// Get object and close
+			ObjectId obj = treeWalk.getObjectId(0);
+			treeWalk.close();
+
+			// Get config
+			logger.info("[" + repoMemory.name + "] Reading configuration...");
+			AutoFfConfigCache.CachedConfig cachedConfig = configCache.get(repo, obj);
+			QuickFfMetrics.STAGE_DURATION.observeSince(stageStart, "config");
+			if (cachedConfig.error != null) {
+				Exception e = cachedConfig.error;
+				if (!cachedConfig.markReported(repoMemory.name)) {
+					// Already reported for this configuration
+					logger.info("[" + repoMemory.name + "] Configuration " + obj.getName()
+							+ " is invalid and was already reported, exiting...");
+					return null;
+				}
+
+				// Send comment to commit
+				try {
+					JsonObject payload = new JsonObject();
+					payload.addProperty("body",
+							"An error occurred while parsing the QuickFF configuration autoff.json file, please verify the configuration.\n\n```\nError: "
+									+ e.getMessage() + "\n```");
+					apiRequest(app, push.installation.id, "/repos/" + push.repository.fullName + "/commits/"
+							+ currentCommit.getName() + "/comments", "POST", payload);
+				} catch (IOException e2) {
+				}
 
-						// Get object and close
-						ObjectId obj = treeWalk.getObjectId(0);
-						treeWalk.close();
+				// Send failed check
+				try {
+					JsonObject payload = new JsonObject();
+					payload.addProperty("state", "error");
+					payload.addProperty("context", "QuickFF");
+					payload.addProperty("description", "Configuration error in autoff.json");
+					apiRequest(app, push.installation.id,
+							"/repos/" + push.repository.fullName + "/statuses/" + currentCommit.getName(),
+							"POST", payload);
+				} catch (IOException e2) {
+				}
+				// Throw
+				throw e;
+			}
+			AutoFfConfig config = cachedConfig.config;
+			pushFilter.update(repoMemory.name, branch, id, config);
+			if (!config.enabled) {
+				logger.info("[" + repoMemory.name + "] QuickFF was disabled, exiting...");
+				return null;
+			}
 
-						// Get config
-						logger.info("[" + repoMemory.name + "] Reading configuration...");
-						ObjectLoader objR = repo.open(obj);
-						InputStream sIn = objR.openStream();
-						InputStreamReader reader = new InputStreamReader(sIn);
-						AutoFfConfig config = new AutoFfConfig();
+			// Find branch
+			logger.info("[" + repoMemory.name + "] Finding matching branch sets...");
+			BranchMatcherIndex.BranchMatch match = config.matchers.match(branch);
+			if (match != null && match.targets.length != 0) {
+				String[] targets = match.targets;
+				logger.info("[" + repoMemory.name + "] Matched branch set: " + match.rule.key);
+
+				// Found matches
+				String branchesToPushTo = "";
+				for (String target : targets) {
+					if (!branchesToPushTo.isEmpty())
+						branchesToPushTo += ", ";
+					branchesToPushTo += target;
+				}
+				logger.info("[" + repoMemory.name + "] Found list of branches to fast-forward: "
+						+ branchesToPushTo);
+
+				// Fetch target branches
+				logger.info("[" + repoMemory.name + "] Fetching target branches...");
+				CredentialsProvider credentials = createCredentialProvider(repoMemory, app, push.installation.id,
+						"Fetching " + branchesToPushTo + "...");
+				stageStart = System.nanoTime();
+				fetcher.fetch(Arrays.asList(targets), credentials);
+				QuickFfMetrics.STAGE_DURATION.observeSince(stageStart, "fetch");
+				logger.info("[" + repoMemory.name + "] Completed successfully!");
+
+				// Write commit-graph for new caches, caches where writing failed are left to maintenance
+				if (!AncestryService.isCommitGraphDisabled(repo)) {
+					AncestryService.enableCommitGraph(repo);
+					if (fetcher.isShallow()) {
+						if (!repoMemory.shallowGraphReported) {
+							repoMemory.shallowGraphReported = true;
+							logger.info("[" + repoMemory.name
+									+ "] Skipped commit-graph, repository history is shallow");
+						}
+					} else if (!AncestryService.hasCommitGraph(repo)) {
+						logger.info("[" + repoMemory.name + "] Writing commit-graph...");
 						try {
-							JsonObject confJson = JsonParser.parseReader(reader).getAsJsonObject();
-							config.loadFromJson(confJson, "autoff.json");
-						} catch (Exception e) {
-							// Error
-							sIn.close();
-
-							// Send comment to commit
-							try {
-								JsonObject payload = new JsonObject();
-								payload.addProperty("body",
-										"An error occurred while parsing the QuickFF configuration autoff.json file, please verify the configuration.\n\n```\nError: "
-												+ e.getMessage() + "\n```");
-								app.appInstallationApiRequest(push.installation.id, "/repos/" + push.repository.fullName
-										+ "/commits/" + currentCommit.getName() + "/comments", "POST", payload);
-							} catch (IOException e2) {
-							}
+							AncestryService.writeCommitGraph(repo);
+						} catch (IOException e) {
+							logger.warn("[" + repoMemory.name
+									+ "] Failed to write commit-graph, disabled it for this cache", e);
+							AncestryService.disableCommitGraph(repo);
+						}
+					}
+				}
 
-							// Send failed check
-							try {
-								JsonObject payload = new JsonObject();
-								payload.addProperty("state", "error");
-								payload.addProperty("context", "QuickFF");
-								payload.addProperty("description", "Configuration error in autoff.json");
-								app.appInstallationApiRequest(push.installation.id,
-										"/repos/" + push.repository.fullName + "/statuses/" + currentCommit.getName(),
-										"POST", payload);
-							} catch (IOException e2) {
-							}
-							// Throw
-							throw e;
+				// Plan updates for branches
+				RunPlan plan = new RunPlan();
+				plan.repoMemory = repoMemory;
+				plan.push = push;
+				plan.app = app;
+				plan.client = client;
+				plan.engine = new FastForwardEngine(repoMemory.name, client);
+				plan.currentCommit = currentCommit;
+				plan.atomic = serverConfig.atomicPush;
+				try (AncestryService ancestry = new AncestryService(repo)) {
+					for (int i = 0; i < targets.length; i++) {
+						String target = targets[i];
+
+						// Log
+						logger.info("[" + repoMemory.name + "] Checking if needing to fast-forward " + target
+								+ "...");
+
+						// Get branch
+						ObjectId targetId = repo.resolve("refs/remotes/origin/" + target);
+						if (targetId == null) {
+							// Close
+							logger.info("[" + repoMemory.name + "] Branch not found, skipping...");
+							continue;
+						}
+
+						// Get last commit
+						revWalk = new RevWalk(repo);
+						RevCommit lastCommit = revWalk.parseCommit(targetId);
+						revWalk.close();
+						logger.info("[" + repoMemory.name + "] Last commit of " + target + ": "
+								+ lastCommit.getName());
+
+						// Check up to date and if the target is present in the current branch
+						stageStart = System.nanoTime();
+						boolean upToDate = ancestry.isAncestor(currentCommit, lastCommit);
+						boolean found = !upToDate && ancestry.isAncestor(lastCommit, currentCommit);
+
+						// Deepen shallow history if the branches could not be related
+						while (!upToDate && !found && !ancestry.hasMergeBase(lastCommit, currentCommit)
+								&& fetcher.isShallow()
+								&& fetcher.deepen(Arrays.asList(branch, target),
+										createCredentialProvider(repoMemory, app, push.installation.id,
+												"Deepening history of " + branch + " and " + target
+														+ "..."))) {
+							ancestry.invalidate();
+							upToDate = ancestry.isAncestor(currentCommit, lastCommit);
+							found = !upToDate && ancestry.isAncestor(lastCommit, currentCommit);
 						}
-						sIn.close();
-						if (!config.enabled) {
-							logger.info("[" + repoMemory.name + "] QuickFF was disabled, exiting...");
-							return;
+						QuickFfMetrics.STAGE_DURATION.observeSince(stageStart, "ancestry");
+						if (upToDate) {
+							QuickFfMetrics.BRANCH_UPDATES.inc("up_to_date");
+							logger.info(
+									"[" + repoMemory.name + "] Branch " + target + " is already up to date");
+							continue;
 						}
 
-						// Find branch
-						logger.info("[" + repoMemory.name + "] Finding matching branch sets...");
-						String selectedPattern = null;
-						String[] outputBranches = null;
-						String[] parameters = new String[0];
-						for (String pattern : config.branches.keySet()) {
-							String ent = pattern;
-							if (pattern.startsWith("RXM:")) {
-								// Regex matcher
-								if (pattern.startsWith("RXM:"))
-									pattern = pattern.substring("RXM:".length());
-
-								// Match
-								if (branch.matches(pattern)) {
-									// Found
-									selectedPattern = pattern;
-									outputBranches = config.branches.get(ent);
-									logger.info("[" + repoMemory.name + "] Matched branch set: " + ent);
-									break;
-								}
-							} else if (pattern.startsWith("WCM:")
-									|| (!pattern.startsWith("RAW:") && pattern.contains("*"))) {
-								// Wildcard matcher
-								if (pattern.startsWith("WCM:"))
-									pattern = pattern.substring("WCM:".length());
-
-								// Match pattern
-								WildcardPatternMatcher matcher = new WildcardPatternMatcher(pattern);
-								PatternMatchResult res = matcher.match(branch);
-								if (res.isMatch()) {
-									// Found
-									selectedPattern = pattern;
-									outputBranches = config.branches.get(ent);
-									parameters = res.getParameters();
-									logger.info("[" + repoMemory.name + "] Matched branch set: " + ent);
-									break;
-								}
-							} else {
-								// Raw
-								if (pattern.startsWith("RAW:"))
-									pattern = pattern.substring("RAW:".length());
-
-								// Check
-								if (pattern.equalsIgnoreCase(branch)) {
-									// Found
-									selectedPattern = pattern;
-									outputBranches = config.branches.get(ent);
-									logger.info("[" + repoMemory.name + "] Matched branch set: " + ent);
-									break;
-								}
-							}
+						// If not found, check hard merge
+						boolean hardMerge = false;
+						if (!found && match.isHardMergeTarget(i)) {
+							// Hard merge
+							hardMerge = true;
+							found = true;
 						}
-						if (outputBranches != null && outputBranches.length != 0) {
-							// Go through target branches
-							String[] targets = new String[outputBranches.length];
-							for (int i = 0; i < targets.length; i++) {
-								String target = outputBranches[i];
-								int ind = 0;
-								for (String param : parameters) {
-									target = target.replace("{" + (ind++ + 1) + "}", param);
-								}
-								targets[i] = target;
-							}
 
-							// Found matches
-							String branchesToPushTo = "";
-							for (String target : targets) {
-								if (!branchesToPushTo.isEmpty())
-									branchesToPushTo += ", ";
-								branchesToPushTo += target;
-							}
-							logger.info("[" + repoMemory.name + "] Found list of branches to fast-forward: "
-									+ branchesToPushTo);
-
-							// Push for branches
-							String failedBranches = "";
-							int i = 0;
-							for (String target : targets) {
-								// Log
-								logger.info("[" + repoMemory.name + "] Checking if needing to fast-forward " + target
-										+ "...");
-								String outputBranch = outputBranches[i++];
-
-								// Get branch
-								ObjectId targetId = repo.resolve("refs/remotes/origin/" + target);
-								if (targetId == null) {
-									// Close
-									logger.info("[" + repoMemory.name + "] Branch not found, skipping...");
-									continue;
-								}
-
-								// Get last commit
-								revWalk = new RevWalk(repo);
-								RevCommit lastCommit = revWalk.parseCommit(targetId);
-								revWalk.close();
-								logger.info("[" + repoMemory.name + "] Last commit of " + target + ": "
-										+ lastCommit.getName());
-
-								// Check up to date
-								boolean found = false;
-								List<Ref> refs = client.branchList().setListMode(ListMode.REMOTE)
-										.setContains(currentCommit.getName()).call();
-								for (Ref ref : refs) {
-									String name = ref.getName();
-									if (name.equals("refs/remotes/origin/" + target)) {
-										found = true;
-										break;
-									}
-								}
-								if (!found) {
-									// Not up to date
-
-									// Check present in current branch
-									found = false;
-									refs = client.branchList().setListMode(ListMode.REMOTE)
-											.setContains(lastCommit.getName()).call();
-									for (Ref ref : refs) {
-										String name = ref.getName();
-										if (name.equals("refs/remotes/origin/" + branch)) {
-											found = true;
-											break;
-										}
-									}
-
-									// If not found, check hard merge
-									boolean hardMerge = false;
-									if (!found && config.hardMergeFor.containsKey(selectedPattern)
-											&& Stream.of(config.hardMergeFor.get(selectedPattern))
-													.anyMatch(t -> t.equals(outputBranch))) {
-										// Hard merge
-										hardMerge = true;
-										found = true;
-									}
-
-									// Check result
-									if (found) {
-										// Log
-										try {
-											if (!hardMerge)
-												logger.info("[" + repoMemory.name + "] Fast-forward needed for "
-														+ target + "!");
-											else
-												logger.info(
-														"[" + repoMemory.name + "] Merge needed for " + target + "!");
-
-											// Fast-forward
-											try {
-												// Checkout
-												logger.info("[" + repoMemory.name + "] Checking out " + target + "...");
-												ObjectId currentBranchHead = repo.resolve("refs/heads/" + branch);
-												if (currentBranchHead == null) {
-													// Checkout new
-													client.reset().setMode(ResetType.HARD)
-															.setRef("origin/" + repo.getBranch()).call();
-													client.checkout().setName(branch).setCreateBranch(true)
-															.setUpstreamMode(SetupUpstreamMode.TRACK)
-															.setStartPoint("origin/" + branch).call();
-												} else {
-													// Checkout existing
-													client.checkout().setName(branch).call();
-
-													// Update
-													logger.info("[" + repoMemory.name + "] Updating " + target + "...");
-													if (!client.pull().setRemote("origin").setRemoteBranchName(branch)
-															.setCredentialsProvider(createCredentialProvider(repoMemory,
-																	app, push.installation.id,
-																	"Pulling " + branch + " from upstream..."))
-															.call().isSuccessful())
-														throw new IOException(
-																"Pull from branch " + branch + " did not succeed");
-												}
-												client.reset().setMode(ResetType.HARD).setRef("origin/" + branch)
-														.call();
-												ObjectId currentBranch = repo.resolve("refs/heads/" + target);
-												if (currentBranch == null) {
-													// Checkout new
-													client.checkout().setName(target).setCreateBranch(true)
-															.setUpstreamMode(SetupUpstreamMode.TRACK)
-															.setStartPoint("origin/" + target).call();
-												} else {
-													// Checkout existing
-													client.checkout().setName(target).call();
-													client.reset().setMode(ResetType.HARD).setRef("origin/" + target)
-															.call();
-
-													// Update
-													logger.info("[" + repoMemory.name + "] Updating " + target + "...");
-													if (!client.pull().setRemote("origin").setRemoteBranchName(target)
-															.setCredentialsProvider(createCredentialProvider(repoMemory,
-																	app, push.installation.id,
-																	"Pulling " + target + " from upstream..."))
-															.call().isSuccessful())
-														throw new IOException(
-																"Pull from branch " + target + " did not succeed");
-												}
-
-												// Pull
-												if (!hardMerge)
-													logger.info("[" + repoMemory.name + "] Fast-forwarding " + target
-															+ " from " + branch + "...");
-												else
-													logger.info("[" + repoMemory.name + "] Merging " + branch + " into "
-															+ target + "...");
-												if (!hardMerge) {
-													if (!client.pull().setRemote("origin").setRemoteBranchName(branch)
-															.setCredentialsProvider(createCredentialProvider(repoMemory,
-																	app, push.installation.id,
-																	"Fast-forwarding " + target + "..."))
-															.setFastForward(FastForwardMode.FF_ONLY).call()
-															.isSuccessful())
-														throw new IOException(
-																"Pull from branch " + target + " did not succeed");
-
-												} else {
-													// Get name
-													String name = app.appApiRequest("/app", "GET", null).get("slug")
-															.getAsString();
-													String uId = app.apiRequest(
-															"/users/" + URLEncoder.encode(name + "[bot]", "UTF-8"),
-															"GET", null).get("id").getAsString();
-													client.merge().include(repo.resolve(branch)).setCommit(false)
-															.setFastForward(FastForwardMode.FF).call();
-													client.commit()
-															.setAuthor(name + "[bot]",
-																	uId + "+" + name + "[bot]@users.noreply.github.com")
-															.setCommitter(name + "[bot]",
-																	uId + "+" + name + "[bot]@users.noreply.github.com")
-															.setMessage("Merging " + branch + " into " + target).call();
-												}
-
-												// Merge succeeded
-												logger.info("[" + repoMemory.name
-														+ "] Merge succeeded, preparing to push...");
-												for (PushResult res : client.push()
-														.setCredentialsProvider(createCredentialProvider(repoMemory,
-																app, push.installation.id,
-																"Pushing " + target + " to upstream..."))
-														.call()) {
-													for (RemoteRefUpdate update : res.getRemoteUpdates()) {
-														if (update.getStatus() != RemoteRefUpdate.Status.OK && update
-																.getStatus() != RemoteRefUpdate.Status.UP_TO_DATE) {
-															String messages = update.getMessage();
-															throw new IOException(
-																	"Push command failed, remote did not accept the request",
-																	messages != null ? new IOException(messages)
-																			: null);
-														}
-													}
-												}
-											} catch (Exception e) {
-												// Log
-												logger.error("[" + repoMemory.name
-														+ "] An error occurred while fast-forwarding, cancelled.", e);
-
-												// Save error
-												if (!failedBranches.isEmpty())
-													failedBranches += "\n";
-												failedBranches += " - " + target + ": " + e.getMessage();
-											} finally {
-												ObjectId currentBranchHead = repo.resolve("refs/heads/" + branch);
-												if (currentBranchHead == null) {
-													// Checkout new
-													client.reset().setMode(ResetType.HARD)
-															.setRef("origin/" + repo.getBranch()).call();
-													client.checkout().setName(branch).setCreateBranch(true)
-															.setUpstreamMode(SetupUpstreamMode.TRACK)
-															.setStartPoint("origin/" + branch).call();
-												} else {
-													// Checkout existing
-													client.checkout().setName(branch).call();
-
-													// Update
-													logger.info("[" + repoMemory.name + "] Updating " + target + "...");
-													if (!client.pull().setRemote("origin").setRemoteBranchName(branch)
-															.setCredentialsProvider(createCredentialProvider(repoMemory,
-																	app, push.installation.id,
-																	"Pulling " + branch + " from upstream..."))
-															.call().isSuccessful())
-														throw new IOException(
-																"Pull from branch " + branch + " did not succeed");
-												}
-												client.reset().setMode(ResetType.HARD).setRef("origin/" + branch)
-														.call();
-											}
-										} catch (Exception e) {
-											// Log
-											logger.error(
-													"[" + repoMemory.name
-															+ "] An error occurred while fast-forwarding, cancelled.",
-													e);
-
-											// Save error
-											if (!failedBranches.isEmpty())
-												failedBranches += "\n";
-											failedBranches += " - " + target + ": " + e.getMessage();
-										}
-									} else {
-										logger.info("[" + repoMemory.name + "] Fast-forward not possible for " + target
-												+ "! Branches diverged!");
-									}
-								} else {
-									logger.info(
-											"[" + repoMemory.name + "] Branch " + target + " is already up to date");
-								}
+						// Check result
+						if (!found) {
+							QuickFfMetrics.BRANCH_UPDATES.inc("diverged");
+							logger.info("[" + repoMemory.name + "] Fast-forward not possible for " + target
+									+ "! Branches diverged!");
+							continue;
+						}
+						try {
+							if (!hardMerge) {
+								// Fast-forward by updating the remote ref
+								logger.info("[" + repoMemory.name + "] Fast-forward needed for " + target + "!");
+								plan.updates.add(plan.engine.planFastForward(target, lastCommit, currentCommit));
+							} else {
+								// Merge
+								logger.info("[" + repoMemory.name + "] Merge needed for " + target + "!");
+								PersonIdent identity = backend.getBotIdentity(app);
+								stageStart = System.nanoTime();
+								plan.updates.add(
+										plan.engine.planMerge(target, branch, lastCommit, currentCommit, identity));
+								QuickFfMetrics.STAGE_DURATION.observeSince(stageStart, "merge");
 							}
+						} catch (Exception e) {
+							// Log
+							logger.error("[" + repoMemory.name + "] An error occurred while merging " + target + ", cancelled.",
+									e);
 
-							// Check result
-							logger.info("[" + repoMemory.name + "] Finished!");
-							if (!failedBranches.isEmpty()) {
-								// Log
-								logger.error(
-										"Some branches could not be fast-forwarded due to errors that occurred during the merge process:\n"
-												+ failedBranches);
-
-								// Send comment to commit
-								try {
-									JsonObject payload = new JsonObject();
-									payload.addProperty("body",
-											"Some branches could not be fast-forwarded due to errors that occurred during the merge process:\n"
-													+ failedBranches);
-									app.appInstallationApiRequest(push.installation.id,
-											"/repos/" + push.repository.fullName + "/commits/" + currentCommit.getName()
-													+ "/comments",
-											"POST", payload);
-								} catch (IOException e2) {
-								}
-
-								// Send failed check
-								try {
-									JsonObject payload = new JsonObject();
-									payload.addProperty("state", "error");
-									payload.addProperty("context", "QuickFF");
-									payload.addProperty("description", "Fast-forwarding failed");
-									app.appInstallationApiRequest(push.installation.id, "/repos/"
-											+ push.repository.fullName + "/statuses/" + currentCommit.getName(), "POST",
-											payload);
-								} catch (IOException e2) {
-								}
-							}
-						} else {
-							// No targets found
-							logger.info("[" + repoMemory.name + "] Branch did not match any configured set, ignored.");
+							// Save error
+							plan.addFailure(target, e);
 						}
-					} finally {
-						// Close
-						client.close();
 					}
-				} catch (Exception e) {
-					logger.error("[" + repoMemory.name + "] An error occurred running QuickFF, cancelled.", e);
 				}
-			} finally {
-				// Close
-				repoMemory.close();
+
+				// Keep client open for pushing
+				keepOpen = true;
+				return plan;
+			} else {
+				// No targets found
+				logger.info("[" + repoMemory.name + "] Branch did not match any configured set, ignored.");
+				return null;
 			}
+		} finally {
+			// Close
+			if (!keepOpen)
+				client.close();
+		}
+	}
+
+	private static boolean pushPlan(RunPlan plan) {
+		RepoMemoryData repoMemory = plan.repoMemory;
+		WebhookPushEventEntity push = plan.push;
+		GithubApp app = plan.app;
+
+		// In atomic mode nothing is pushed if any update could not be planned
+		if (plan.atomic && !plan.failedBranches.isEmpty() && !plan.updates.isEmpty()) {
+			logger.info("[" + repoMemory.name + "] Skipping atomic push as not all branches could be updated");
+			for (FastForwardEngine.RefUpdate update : plan.updates)
+				plan.addFailure(update.target, new IOException("Skipped, atomic push cancelled"));
+			plan.updates.clear();
+		}
+
+		// Push all updates at once
+		if (!plan.updates.isEmpty()) {
+			String targets = "";
+			for (FastForwardEngine.RefUpdate update : plan.updates) {
+				if (!targets.isEmpty())
+					targets += ", ";
+				targets += update.target;
+			}
+			try {
+				CredentialsProvider credentials = createCredentialProvider(repoMemory, app, push.installation.id,
+						"Pushing " + targets + " to upstream...");
+				long stageStart = System.nanoTime();
+				Map<FastForwardEngine.RefUpdate, Exception> failures = plan.atomic
+						? plan.engine.pushAtomic(plan.updates, credentials)
+						: plan.engine.pushAll(plan.updates, credentials);
+				QuickFfMetrics.STAGE_DURATION.observeSince(stageStart, "push");
+				for (FastForwardEngine.RefUpdate update : plan.updates) {
+					Exception e = failures.get(update);
+					if (e == null) {
+						QuickFfMetrics.BRANCH_UPDATES.inc(update.merge ? "merge" : "fast_forward");
+						logger.info("[" + repoMemory.name + "] Updated " + update.target + " successfully!");
+						continue;
+					}
+
+					// Log
+					logger.error("[" + repoMemory.name + "] An error occurred while pushing " + update.target
+							+ ", cancelled.", e);
+					plan.addFailure(update.target, e);
+				}
+			} catch (IOException e) {
+				// Authentication failed, all updates failed
+				logger.error("[" + repoMemory.name + "] An error occurred while fast-forwarding, cancelled.", e);
+				for (FastForwardEngine.RefUpdate update : plan.updates)
+					plan.addFailure(update.target, e);
+			}
+		}
+
+		// Check result
+		logger.info("[" + repoMemory.name + "] Finished!");
+		if (!plan.failedBranches.isEmpty()) {
+			// Log
+			logger.error(
+					"Some branches could not be fast-forwarded due to errors that occurred during the merge process:\n"
+							+ plan.failedBranches);
+
+			// Send comment to commit
+			try {
+				JsonObject payload = new JsonObject();
+				payload.addProperty("body",
+						"Some branches could not be fast-forwarded due to errors that occurred during the merge process:\n"
+								+ plan.failedBranches);
+				apiRequest(app, push.installation.id, "/repos/" + push.repository.fullName + "/commits/"
+						+ plan.currentCommit.getName() + "/comments", "POST", payload);
+			} catch (IOException e2) {
+			}
+
+			// Send failed check
+			try {
+				JsonObject payload = new JsonObject();
+				payload.addProperty("state", "error");
+				payload.addProperty("context", "QuickFF");
+				payload.addProperty("description", "Fast-forwarding failed");
+				apiRequest(app, push.installation.id,
+						"/repos/" + push.repository.fullName + "/statuses/" + plan.currentCommit.getName(), "POST",
+						payload);
+			} catch (IOException e2) {
+			}
+		}
+		return plan.failedBranches.isEmpty();
+	}
+
+	private static String findNetwork(GithubApp app, WebhookPushEventEntity push) throws IOException {
+		// Forks share the network of their root repository
+		JsonObject repo = apiRequest(app, push.installation.id, "/repos/" + push.repository.fullName, "GET", null);
+		if (repo.has("source") && repo.get("source").isJsonObject()
+				&& repo.getAsJsonObject("source").has("full_name"))
+			return repo.getAsJsonObject("source").get("full_name").getAsString();
+		return push.repository.fullName;
+	}
+
+	private static JsonObject apiRequest(GithubApp app, String installationId, String path, String method,
+			JsonObject payload) throws IOException {
+		long start = System.nanoTime();
+		try {
+			return backend.installationApiRequest(app, installationId, path, method, payload);
+		} finally {
+			QuickFfMetrics.STAGE_DURATION.observeSince(start, "api");
 		}
 	}
 
 	private static CredentialsProvider createCredentialProvider(RepoMemoryData repoMemory, GithubApp app,
 			String installationId, String event) throws IOException {
 		try {
-			logger.info("[" + repoMemory.name + "] Authenticating application with server...");
-			String token = GithubAppInstallationTokens.requestInstallationAuthToken(app, installationId);
-			logger.info("[" + repoMemory.name + "] Authentication successful!");
+			long start = System.nanoTime();
+			CredentialsProvider credentials = backend.getCredentials(app, installationId);
+			QuickFfMetrics.STAGE_DURATION.observeSince(start, "token");
 			logger.info("[" + repoMemory.name + "] " + event);
-			return new UsernamePasswordCredentialsProvider("x-access-token", token);
+			return credentials;
 		} catch (IOException e) {
 			throw new IOException("Authenticating through API failed", e);
 		}
@@ -0,0 +1,227 @@
+package usr.skyswimmer.quickff.tools.quickff;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import usr.skyswimmer.quicktoolsutils.io.FileUtils;
+
+/**
+ *
+ * On-disk index of the repository cache, maps repository names to their cache
+ * directory and last use time so caches survive restarts
+ *
+ */
+public class RepositoryCacheIndex {
+
+	public static final String INDEX_FILE = "index.json";
+
+	private Logger logger = LogManager.getLogger("quickff");
+
+	private File cacheBase;
+	private File indexFile;
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	private boolean dirty;
+
+	public static class Entry {
+		public String name;
+		public String directory;
+		public long lastUsed;
+		public long useCount;
+	}
+
+	public RepositoryCacheIndex(File cacheBase) {
+		this.cacheBase = cacheBase;
+		this.indexFile = new File(cacheBase, INDEX_FILE);
+	}
+
+	/**
+	 * Loads the index and validates all cached repositories, broken caches and
+	 * directories not present in the index are removed
+	 */
+	public synchronized void load() {
+		// Read index
+		entries.clear();
+		if (indexFile.exists()) {
+			try (FileReader reader = new FileReader(indexFile)) {
+				JsonObject index = JsonParser.parseReader(reader).getAsJsonObject();
+				JsonObject repos = index.get("repositories").getAsJsonObject();
+				for (String name : repos.keySet()) {
+					JsonObject repo = repos.get(name).getAsJsonObject();
+					Entry ent = new Entry();
+					ent.name = name;
+					ent.directory = repo.get("directory").getAsString();
+					ent.lastUsed = repo.get("lastUsed").getAsLong();
+					if (repo.has("useCount"))
+						ent.useCount = repo.get("useCount").getAsLong();
+					entries.put(name, ent);
+				}
+			} catch (Exception e) {
+				logger.error("Failed to read repository cache index, cache will be cleared", e);
+				entries.clear();
+			}
+		}
+
+		// Validate entries
+		HashSet<String> knownDirs = new HashSet<String>();
+		for (Entry ent : entries.values().toArray(t -> new Entry[t])) {
+			File dir = new File(cacheBase, ent.directory);
+			if (!validate(ent.name, dir)) {
+				logger.info("Clearing cache: " + ent.directory + " (" + ent.name + "): cache was incomplete");
+				if (dir.exists())
+					deleteCache(dir);
+				entries.remove(ent.name);
+				continue;
+			}
+			knownDirs.add(ent.directory);
+		}
+
+		// Remove unknown directories
+		for (File dir : cacheBase.listFiles(t -> t.isDirectory())) {
+			if (!knownDirs.contains(dir.getName())) {
+				logger.info("Clearing cache: " + dir.getName());
+				deleteCache(dir);
+			}
+		}
+		save();
+	}
+
+	/**
+	 * Retrieves all indexed repositories
+	 *
+	 * @return List of index entries
+	 */
+	public synchronized List<Entry> getEntries() {
+		return new ArrayList<Entry>(entries.values());
+	}
+
+	/**
+	 * Records the use of a repository cache, the index is written on the next
+	 * flush
+	 *
+	 * @param name     Repository name
+	 * @param dir      Cache directory
+	 * @param lastUsed Last use time
+	 * @param useCount Amount of runs that used the cache
+	 */
+	public synchronized void touch(String name, File dir, long lastUsed, long useCount) {
+		Entry ent = entries.get(name);
+		if (ent == null) {
+			ent = new Entry();
+			ent.name = name;
+			entries.put(name, ent);
+		}
+		ent.directory = dir.getName();
+		ent.lastUsed = lastUsed;
+		ent.useCount = useCount;
+		dirty = true;
+	}
+
+	/**
+	 * Removes a repository from the index
+	 *
+	 * @param name Repository name
+	 */
+	public synchronized void remove(String name) {
+		if (entries.remove(name) != null)
+			save();
+	}
+
+	/**
+	 * Writes the index if it changed since it was last saved
+	 */
+	public synchronized void flush() {
+		if (dirty)
+			save();
+	}
+
+	private void save() {
+		// Build json
+		JsonObject repos = new JsonObject();
+		for (Entry ent : entries.values()) {
+			JsonObject repo = new JsonObject();
+			repo.addProperty("directory", ent.directory);
+			repo.addProperty("lastUsed", ent.lastUsed);
+			repo.addProperty("useCount", ent.useCount);
+			repos.add(ent.name, repo);
+		}
+		JsonObject index = new JsonObject();
+		index.addProperty("version", 1);
+		index.add("repositories", repos);
+
+		// Write to temporary file and move into place
+		try {
+			File tmp = new File(cacheBase, INDEX_FILE + ".tmp");
+			Files.writeString(tmp.toPath(), new Gson().toJson(index));
+			Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			dirty = false;
+		} catch (IOException e) {
+			logger.error("Failed to save repository cache index", e);
+		}
+	}
+
+	private void deleteCache(File dir) {
+		// Release the object pool first, it goes with its last member
+		try {
+			ObjectPool.release(dir);
+		} catch (IOException e) {
+			logger.error("Failed to release object pool of cache " + dir.getName(), e);
+		}
+		FileUtils.deleteDir(dir);
+	}
+
+	private boolean validate(String name, File dir) {
+		if (!RepositoryFetcher.isRepository(dir))
+			return false;
+		try (Git client = Git.open(dir)) {
+			Repository repo = client.getRepository();
+			if (new File(repo.getDirectory(), RepositoryFetcher.INCOMPLETE_MARKER).exists())
+				return false;
+
+			// Remove stale locks left by interrupted writes
+			removeLocks(repo.getDirectory());
+
+			// Drop refs pointing to objects that were never fully written
+			for (Ref ref : repo.getRefDatabase().getRefs()) {
+				if (ref.getObjectId() != null && !repo.getObjectDatabase().has(ref.getObjectId())) {
+					logger.info("Repairing cache of " + name + ": removing broken ref " + ref.getName());
+					RefUpdate update = repo.updateRef(ref.getName());
+					update.setForceUpdate(true);
+					update.delete();
+				}
+			}
+			return true;
+		} catch (Exception e) {
+			logger.error("Failed to validate cache of " + name, e);
+			return false;
+		}
+	}
+
+	private void removeLocks(File dir) {
+		for (File f : dir.listFiles()) {
+			if (f.isDirectory() && !f.getName().equals("objects"))
+				removeLocks(f);
+			else if (f.isFile() && f.getName().endsWith(".lock"))
+				f.delete();
+		}
+	}
+
+}
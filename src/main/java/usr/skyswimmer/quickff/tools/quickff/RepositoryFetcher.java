@@ -0,0 +1,436 @@
+package usr.skyswimmer.quickff.tools.quickff;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.FilterSpec;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.Transport;
+
+import usr.skyswimmer.quickff.tools.entities.CloneStrategyConfig;
+
+/**
+ *
+ * Repository cache fetcher, creates the cache repository and fetches only the
+ * branches a run needs, honoring the configured depth and filter
+ *
+ */
+public class RepositoryFetcher {
+
+	public static final String INCOMPLETE_MARKER = "quickff-incomplete";
+
+	private static final int MAX_DEEPEN_STEPS = 6;
+
+	private Logger logger = LogManager.getLogger("quickff");
+
+	private String name;
+	private File repoDir;
+	private CloneStrategyConfig strategy;
+
+	private Git client;
+	private ObjectPool pool;
+	private boolean fresh;
+	private int currentDepth;
+	private int deepenSteps;
+	private Map<String, Ref> remoteHeads;
+
+	public RepositoryFetcher(String name, File repoDir, CloneStrategyConfig strategy) {
+		this.name = name;
+		this.repoDir = repoDir;
+		this.strategy = strategy;
+		this.currentDepth = strategy.depth;
+	}
+
+	/**
+	 * Opens the cache repository, creating it if needed
+	 *
+	 * @param url Remote URL
+	 * @return Git client instance
+	 * @throws IOException If opening the repository fails
+	 */
+	public Git open(String url) throws IOException {
+		if (client != null)
+			return client;
+		try {
+			if (isRepository(repoDir)) {
+				// Open existing, resume the first fetch if it did not complete
+				client = Git.open(repoDir);
+				fresh = new File(client.getRepository().getDirectory(), INCOMPLETE_MARKER).exists();
+				pool = ObjectPool.forMember(repoDir);
+			} else {
+				// Create
+				logger.info("[" + name + "] Creating " + (strategy.bare ? "bare " : "") + "repository cache...");
+				client = Git.init().setBare(strategy.bare).setDirectory(repoDir).call();
+				new File(client.getRepository().getDirectory(), INCOMPLETE_MARKER).createNewFile();
+				fresh = true;
+			}
+
+			// Configure remote
+			StoredConfig conf = client.getRepository().getConfig();
+			conf.setString("remote", "origin", "url", url);
+			conf.unset("remote", "origin", "fetch");
+			conf.save();
+			return client;
+		} catch (GitAPIException e) {
+			throw new IOException("Failed to create repository cache", e);
+		}
+	}
+
+	/**
+	 * Makes a fresh cache borrow its objects from an object pool, all fetches are
+	 * made into the pool afterwards and the depth and filter of the clone strategy
+	 * no longer apply
+	 *
+	 * @param pool Object pool of the repository network
+	 * @throws IOException If attaching the pool fails
+	 */
+	public void usePool(ObjectPool pool) throws IOException {
+		if (!fresh || this.pool != null)
+			return;
+		pool.attach(client.getRepository(), name);
+
+		// Reopen so the alternates are picked up
+		client.close();
+		client = Git.open(repoDir);
+		this.pool = pool;
+	}
+
+	/**
+	 * Retrieves the object pool the cache borrows objects from
+	 *
+	 * @return ObjectPool instance or null if the cache has its own objects
+	 */
+	public ObjectPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Checks if the cache was created by this fetcher or its first fetch did not
+	 * complete yet
+	 *
+	 * @return True if the cache has not been fetched into yet, false otherwise
+	 */
+	public boolean isFresh() {
+		return fresh;
+	}
+
+	/**
+	 * Seeds a fresh cache from another cache of the same repository, so the next
+	 * fetch from origin only needs the commits the other cache is missing
+	 *
+	 * Shallow and incomplete caches are not used.
+	 *
+	 * @param sourceDir Directory of the other cache repository
+	 * @return True if the cache was seeded, false otherwise
+	 */
+	public boolean seedFrom(File sourceDir) {
+		if (!fresh)
+			return false;
+		try (Git source = Git.open(sourceDir)) {
+			File sourceGitDir = source.getRepository().getDirectory();
+			File shallow = new File(sourceGitDir, "shallow");
+			if (new File(sourceGitDir, INCOMPLETE_MARKER).exists() || (shallow.exists() && shallow.length() != 0))
+				return false;
+
+			// Copy remote-tracking refs and their history
+			ArrayList<String> branches = new ArrayList<String>();
+			for (Ref ref : source.getRepository().getRefDatabase().getRefsByPrefix("refs/remotes/origin/"))
+				branches.add(ref.getName().substring("refs/remotes/origin/".length()));
+			if (branches.isEmpty())
+				return false;
+			transfer(sourceGitDir.getAbsolutePath(), null, 0, "refs/remotes/origin/", branches);
+		} catch (Exception e) {
+			logger.warn("[" + name + "] Could not seed cache from " + sourceDir + ", fetching from origin", e);
+			return false;
+		}
+
+		// Seeded, only incremental fetches are needed from now on
+		new File(client.getRepository().getDirectory(), INCOMPLETE_MARKER).delete();
+		fresh = false;
+		return true;
+	}
+
+	/**
+	 * Fetches a set of branches from origin into refs/remotes/origin, branches
+	 * that do not exist remotely have their remote-tracking ref removed
+	 *
+	 * Branches the cache does not track yet are fetched with the configured
+	 * depth, tracked branches are fetched incrementally.
+	 *
+	 * @param branches    Branches to fetch
+	 * @param credentials Fetch credentials
+	 * @throws IOException If fetching fails
+	 */
+	public void fetch(Collection<String> branches, CredentialsProvider credentials) throws IOException {
+		Repository repo = client.getRepository();
+		ArrayList<String> tracked = new ArrayList<String>();
+		ArrayList<String> untracked = new ArrayList<String>();
+		for (String branch : new LinkedHashSet<String>(branches)) {
+			if (repo.exactRef("refs/remotes/origin/" + branch) != null)
+				tracked.add(branch);
+			else
+				untracked.add(branch);
+		}
+		if (!tracked.isEmpty())
+			fetch(tracked, credentials, 0, false);
+		if (!untracked.isEmpty())
+			fetch(untracked, credentials, strategy.depth, false);
+		if (fresh) {
+			// First fetch completed, mark cache as usable
+			new File(client.getRepository().getDirectory(), INCOMPLETE_MARKER).delete();
+			fresh = false;
+		}
+	}
+
+	/**
+	 * Updates the remote-tracking ref of a pushed branch without fetching if the
+	 * pushed commit is already present locally
+	 *
+	 * The ref is only moved forward, redelivered or out-of-order events for
+	 * older commits are left to a fetch.
+	 *
+	 * @param branch Branch that was pushed to
+	 * @param after  Commit the branch was pushed to
+	 * @return True if the ref was updated locally, false if a fetch is needed
+	 * @throws IOException If updating the ref fails
+	 */
+	public boolean updateFromPush(String branch, String after) throws IOException {
+		if (fresh || !ObjectId.isId(after))
+			return false;
+		Repository repo = client.getRepository();
+		ObjectId id = ObjectId.fromString(after);
+		if (!repo.getObjectDatabase().has(id))
+			return false;
+
+		// Check the current tip is an ancestor of the pushed commit
+		Ref current = repo.exactRef("refs/remotes/origin/" + branch);
+		if (current != null && current.getObjectId() != null && !current.getObjectId().equals(id)) {
+			try (AncestryService ancestry = new AncestryService(repo)) {
+				if (!ancestry.isAncestor(current.getObjectId(), id))
+					return false;
+			} catch (MissingObjectException | IncorrectObjectTypeException e) {
+				return false;
+			}
+		}
+		updateTrackingRef(repo, branch, id);
+		return true;
+	}
+
+	/**
+	 * Checks if the cache repository is a shallow repository
+	 *
+	 * @return True if shallow, false otherwise
+	 */
+	public boolean isShallow() {
+		File shallow = new File(client.getRepository().getDirectory(), "shallow");
+		return shallow.exists() && shallow.length() != 0;
+	}
+
+	/**
+	 * Deepens the history of a shallow cache, the depth is doubled each call and
+	 * the history is fully unshallowed after a few steps
+	 *
+	 * @param branches    Branches to deepen
+	 * @param credentials Fetch credentials
+	 * @return True if history was deepened, false if the repository is not
+	 *         shallow
+	 * @throws IOException If fetching fails
+	 */
+	public boolean deepen(Collection<String> branches, CredentialsProvider credentials) throws IOException {
+		if (!isShallow())
+			return false;
+		deepenSteps++;
+		if (currentDepth <= 0 || deepenSteps > MAX_DEEPEN_STEPS)
+			currentDepth = Constants.INFINITE_DEPTH;
+		else
+			currentDepth *= 2;
+		logger.info("[" + name + "] Deepening history"
+				+ (currentDepth == Constants.INFINITE_DEPTH ? " completely" : " to " + currentDepth + " commits")
+				+ "...");
+		fetch(branches, credentials, currentDepth, true);
+		return true;
+	}
+
+	private void fetch(Collection<String> branches, CredentialsProvider credentials, int depth, boolean deepen)
+			throws IOException {
+		Repository repo = client.getRepository();
+
+		// Find remote branches
+		if (remoteHeads == null) {
+			try {
+				remoteHeads = client.lsRemote().setRemote("origin").setHeads(true)
+						.setCredentialsProvider(credentials).callAsMap();
+			} catch (GitAPIException e) {
+				throw new IOException("Failed to list remote branches", e);
+			}
+		}
+
+		// Find branches to fetch, tips already present locally are updated without fetching
+		ArrayList<String> toFetch = new ArrayList<String>();
+		int local = 0;
+		for (String branch : new LinkedHashSet<String>(branches)) {
+			Ref remote = remoteHeads.get("refs/heads/" + branch);
+			if (remote == null)
+				removeTrackingRef(repo, branch);
+			else if (!deepen && remote.getObjectId() != null
+					&& repo.getObjectDatabase().has(remote.getObjectId())) {
+				updateTrackingRef(repo, branch, remote.getObjectId());
+				local++;
+			} else
+				toFetch.add(branch);
+		}
+		if (local != 0)
+			logger.info("[" + name + "] " + local + " branch(es) already up to date locally");
+		if (toFetch.isEmpty())
+			return;
+
+		// Fetch, pools have no remote configuration so they are given the URL
+		transfer(pool != null ? repo.getConfig().getString("remote", "origin", "url") : "origin", credentials, depth,
+				"refs/heads/", toFetch);
+	}
+
+	private void transfer(String remote, CredentialsProvider credentials, int depth, String sourcePrefix,
+			Collection<String> branches) throws IOException {
+		Repository repo = client.getRepository();
+		String targetPrefix = pool != null ? pool.getRefPrefix(name) : "refs/remotes/origin/";
+		ArrayList<RefSpec> specs = new ArrayList<RefSpec>();
+		for (String branch : branches)
+			specs.add(new RefSpec("+" + sourcePrefix + branch + ":" + targetPrefix + branch));
+
+		// Pooled caches fetch into the member namespace of the pool, one fetch per pool at a time
+		if (pool != null)
+			pool.lock();
+		try {
+			Repository target = pool != null ? pool.open() : repo;
+			try (Transport transport = Transport.open(target, remote)) {
+				if (credentials != null)
+					transport.setCredentialsProvider(credentials);
+				transport.setTagOpt(TagOpt.NO_TAGS);
+				if (pool == null) {
+					if (depth > 0)
+						transport.setDepth(depth);
+					if (strategy.filter != null) {
+						// Record the filter like git does, the cache stays partial even if the filter is removed
+						StoredConfig conf = repo.getConfig();
+						conf.setBoolean("remote", "origin", "promisor", true);
+						conf.setString("remote", "origin", "partialclonefilter", strategy.filter);
+						conf.save();
+						transport.setFilterSpec(FilterSpec.fromFilterLine(strategy.filter));
+					}
+				}
+				transport.fetch(NullProgressMonitor.INSTANCE, specs);
+			} catch (URISyntaxException e) {
+				throw new IOException("Invalid remote URL", e);
+			}
+
+			// Point the remote-tracking refs at the fetched pool refs
+			if (pool != null) {
+				for (String branch : branches) {
+					Ref ref = target.exactRef(targetPrefix + branch);
+					if (ref != null && ref.getObjectId() != null)
+						updateTrackingRef(repo, branch, ref.getObjectId());
+				}
+			}
+		} finally {
+			if (pool != null)
+				pool.unlock();
+		}
+	}
+
+	private void updateTrackingRef(Repository repo, String branch, ObjectId id) throws IOException {
+		RefUpdate update = repo.updateRef("refs/remotes/origin/" + branch);
+		update.setNewObjectId(id);
+		update.setForceUpdate(true);
+		RefUpdate.Result res = update.update();
+		if (res == RefUpdate.Result.LOCK_FAILURE || res == RefUpdate.Result.IO_FAILURE
+				|| res == RefUpdate.Result.REJECTED)
+			throw new IOException("Failed to update remote-tracking ref of " + branch + ": " + res);
+
+		// Keep the pool ref in sync so pool maintenance does not prune objects the cache uses
+		if (pool != null) {
+			pool.lock();
+			try {
+				Repository poolRepo = pool.open();
+				String poolRef = pool.getRefPrefix(name) + branch;
+				Ref current = poolRepo.exactRef(poolRef);
+				if ((current == null || !id.equals(current.getObjectId())) && poolRepo.getObjectDatabase().has(id)) {
+					update = poolRepo.updateRef(poolRef);
+					update.setNewObjectId(id);
+					update.setForceUpdate(true);
+					update.update();
+				}
+			} finally {
+				pool.unlock();
+			}
+		}
+	}
+
+	private void removeTrackingRef(Repository repo, String branch) throws IOException {
+		Ref ref = repo.exactRef("refs/remotes/origin/" + branch);
+		if (ref == null)
+			return;
+		RefUpdate update = repo.updateRef(ref.getName());
+		update.setForceUpdate(true);
+		update.delete();
+
+		// Release the pool ref so its objects can be pruned
+		if (pool != null) {
+			pool.lock();
+			try {
+				Repository poolRepo = pool.open();
+				if (poolRepo.exactRef(pool.getRefPrefix(name) + branch) != null) {
+					update = poolRepo.updateRef(pool.getRefPrefix(name) + branch);
+					update.setForceUpdate(true);
+					update.delete();
+				}
+			} finally {
+				pool.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Checks if a repository is a partial clone, objects omitted by the filter
+	 * are not present locally
+	 *
+	 * @param repo Repository to check
+	 * @return True if fetched with a filter, false otherwise
+	 */
+	public static boolean isPartial(Repository repo) {
+		StoredConfig conf = repo.getConfig();
+		return conf.getBoolean("remote", "origin", "promisor", false)
+				|| conf.getString("remote", "origin", "partialclonefilter") != null;
+	}
+
+	/**
+	 * Checks if a directory contains a repository cache
+	 *
+	 * @param repoDir Directory to check
+	 * @return True if a cache repository is present, false otherwise
+	 */
+	public static boolean isRepository(File repoDir) {
+		return Files.isDirectory(new File(repoDir, ".git").toPath()) || new File(repoDir, "HEAD").isFile();
+	}
+
+}
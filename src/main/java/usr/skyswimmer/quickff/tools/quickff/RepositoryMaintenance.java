@@ -0,0 +1,244 @@
+package usr.skyswimmer.quickff.tools.quickff;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+
+import usr.skyswimmer.quickff.tools.entities.MaintenanceConfig;
+
+/**
+ *
+ * Pack maintenance of cached repositories, repacks into a single pack with
+ * bitmaps, prunes loose objects and rewrites the commit-graph so object
+ * lookups and ancestry walks do not slow down as fetches pile up
+ *
+ * Maintenance is paced by an I/O budget shared by all repositories and stops
+ * as soon as the caller reports it was cancelled, the work done so far is
+ * kept. The I/O of each step is estimated from the size of the object store.
+ *
+ */
+public class RepositoryMaintenance {
+
+	// Loose objects are counted in one fan-out folder and extrapolated, same as git
+	private static final String SAMPLE_FOLDER = "17";
+
+	private MaintenanceConfig config;
+	private IoBudget budget;
+	private ConcurrentHashMap<File, Long> lastRun = new ConcurrentHashMap<File, Long>();
+
+	public static class Task {
+		public boolean repack;
+		public boolean commitGraph;
+		public String reason;
+	}
+
+	public RepositoryMaintenance(MaintenanceConfig config) {
+		this.config = config;
+		this.budget = new IoBudget(config.ioBudgetMbPerSecond * 1024L * 1024L);
+	}
+
+	/**
+	 * Checks if a repository was maintained within the configured interval
+	 *
+	 * @param dir Repository directory, the work tree for non-bare repositories
+	 * @return True if maintained recently, false otherwise
+	 */
+	public boolean isRecent(File dir) {
+		Long last = lastRun.get(dir.getAbsoluteFile());
+		return last != null && System.currentTimeMillis() - last < config.intervalMinutes * 60 * 1000L;
+	}
+
+	/**
+	 * Forgets the maintenance history of a removed repository
+	 *
+	 * @param dir Repository directory, the work tree for non-bare repositories
+	 */
+	public void forget(File dir) {
+		lastRun.remove(dir.getAbsoluteFile());
+	}
+
+	/**
+	 * Checks what maintenance a repository cache needs
+	 *
+	 * @param repo    Cache repository
+	 * @param poolDir Object pool the cache borrows from, null if it has none
+	 * @param partial True if the cache was fetched with a filter
+	 * @return Task instance or null if no maintenance is needed
+	 */
+	public Task checkCache(Repository repo, File poolDir, boolean partial) {
+		Task task = new Task();
+		File objects = new File(repo.getDirectory(), "objects");
+		if (poolDir == null && !partial) {
+			// Pool members are not repacked, repacking would copy the borrowed objects
+			// Partial clones are not repacked either, JGit cannot repack without the omitted objects
+			task.reason = checkPacks(objects);
+			task.repack = task.reason != null;
+		}
+
+		// Commit-graph needs to cover everything fetched since it was written
+		File graph = new File(objects, Constants.INFO_COMMIT_GRAPH);
+		long newestPack = newestPack(objects);
+		if (poolDir != null)
+			newestPack = Math.max(newestPack, newestPack(new File(poolDir, "objects")));
+		if (!task.repack && newestPack != 0 && (!graph.isFile() || graph.lastModified() < newestPack)) {
+			task.commitGraph = true;
+			task.reason = "commit-graph is out of date";
+		}
+		if (task.repack)
+			task.commitGraph = true;
+		return task.reason == null ? null : task;
+	}
+
+	/**
+	 * Checks if an object pool needs to be repacked
+	 *
+	 * @param poolDir Pool directory
+	 * @return Task instance or null if no maintenance is needed
+	 */
+	public Task checkPool(File poolDir) {
+		String reason = checkPacks(new File(poolDir, "objects"));
+		if (reason == null)
+			return null;
+		Task task = new Task();
+		task.repack = true;
+		task.reason = reason;
+		return task;
+	}
+
+	/**
+	 * Runs maintenance, the caller needs to make sure nothing else uses the
+	 * repository meanwhile
+	 *
+	 * @param repo      Repository to maintain
+	 * @param task      Maintenance task
+	 * @param exclusive True if nothing reads the repository meanwhile, replaced
+	 *                  packs are then removed right away instead of after the
+	 *                  pack expiry of git
+	 * @param cancelled Checked throughout, returns true once maintenance needs
+	 *                  to stop
+	 * @return True if completed, false if cancelled
+	 * @throws IOException If maintenance fails
+	 */
+	public boolean run(Repository repo, Task task, boolean exclusive, BooleanSupplier cancelled)
+			throws IOException {
+		File objects = new File(repo.getDirectory(), "objects");
+		lastRun.put((repo.isBare() ? repo.getDirectory() : repo.getWorkTree()).getAbsoluteFile(),
+				System.currentTimeMillis());
+
+		// Repack, write bitmaps and prune
+		if (task.repack && repo instanceof FileRepository) {
+			BudgetMonitor monitor = new BudgetMonitor(directorySize(objects), cancelled);
+			GC gc = new GC((FileRepository) repo);
+			gc.setProgressMonitor(monitor);
+			gc.setExpireAgeMillis(config.pruneExpireMinutes * 60 * 1000L);
+			if (exclusive)
+				gc.setPackExpireAgeMillis(0);
+			try {
+				gc.gc().get();
+			} catch (Exception e) {
+				if (monitor.isCancelled())
+					return false;
+				if (e instanceof InterruptedException)
+					Thread.currentThread().interrupt();
+				throw new IOException("Repacking failed", e);
+			}
+			if (monitor.isCancelled())
+				return false;
+		}
+
+		// Rewrite commit-graph, estimated to cost about as much as the previous one
+		if (task.commitGraph) {
+			File graph = new File(objects, Constants.INFO_COMMIT_GRAPH);
+			if (!budget.consume(graph.length(), cancelled))
+				return false;
+			try {
+				if (AncestryService.writeCommitGraph(repo))
+					AncestryService.enableCommitGraph(repo);
+			} catch (IOException e) {
+				AncestryService.disableCommitGraph(repo);
+				throw e;
+			}
+		}
+		return true;
+	}
+
+	private String checkPacks(File objects) {
+		File[] packs = new File(objects, "pack").listFiles(t -> t.getName().endsWith(".pack"));
+		if (packs != null && packs.length >= config.packLimit)
+			return packs.length + " packs";
+		File[] sample = new File(objects, SAMPLE_FOLDER).listFiles();
+		long loose = sample == null ? 0 : sample.length * 256L;
+		if (loose >= config.looseObjectLimit)
+			return "about " + loose + " loose objects";
+		return null;
+	}
+
+	private static long newestPack(File objects) {
+		File[] packs = new File(objects, "pack").listFiles(t -> t.getName().endsWith(".pack"));
+		long newest = 0;
+		if (packs != null) {
+			for (File pack : packs)
+				newest = Math.max(newest, pack.lastModified());
+		}
+		return newest;
+	}
+
+	private static long directorySize(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return 0;
+		long size = 0;
+		for (File f : files)
+			size += f.isDirectory() ? directorySize(f) : f.length();
+		return size;
+	}
+
+	private class BudgetMonitor implements ProgressMonitor {
+		private long estimatedBytes;
+		private BooleanSupplier cancelled;
+		private double bytesPerUnit;
+		private boolean stopped;
+
+		public BudgetMonitor(long estimatedBytes, BooleanSupplier cancelled) {
+			this.estimatedBytes = estimatedBytes;
+			this.cancelled = cancelled;
+		}
+
+		@Override
+		public void start(int totalTasks) {
+		}
+
+		@Override
+		public void beginTask(String title, int totalWork) {
+			// Each counted step is assumed to go over the whole object store once
+			bytesPerUnit = totalWork > 0 ? (double) estimatedBytes / totalWork : 0;
+		}
+
+		@Override
+		public void update(int completed) {
+			if (!stopped && !budget.consume((long) (completed * bytesPerUnit), cancelled))
+				stopped = true;
+		}
+
+		@Override
+		public void endTask() {
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return stopped || cancelled.getAsBoolean();
+		}
+
+		@Override
+		public void showDuration(boolean enabled) {
+		}
+	}
+
+}
@@ -0,0 +1,114 @@
+package usr.skyswimmer.quickff.tools.quickff;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import usr.skyswimmer.quickff.tools.entities.StatusConfig;
+import usr.skyswimmer.quickff.tools.quickff.metrics.QuickFfMetrics;
+
+/**
+ *
+ * Lightweight status listener, serves the job status of the dispatcher and
+ * the runner metrics
+ *
+ * Endpoints:
+ * <ul>
+ * <li>GET /status - queued, running and recently finished jobs per
+ * repository</li>
+ * <li>GET /status/jobs/&lt;id&gt; - status of a single job</li>
+ * <li>GET /metrics - runner metrics in Prometheus text format</li>
+ * </ul>
+ *
+ */
+public class StatusServer {
+
+	private Logger logger = LogManager.getLogger("quickff");
+	private Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+	private StatusConfig config;
+	private QuickFfDispatcher dispatcher;
+	private HttpServer server;
+
+	public StatusServer(StatusConfig config, QuickFfDispatcher dispatcher) {
+		this.config = config;
+		this.dispatcher = dispatcher;
+	}
+
+	/**
+	 * Starts the status listener if a port is configured
+	 *
+	 * @throws IOException If binding the port fails
+	 */
+	public void start() throws IOException {
+		if (config.port == 0 || server != null)
+			return;
+		server = HttpServer.create(new InetSocketAddress(config.address, config.port), 0);
+		server.createContext("/status", exchange -> {
+			try {
+				handle(exchange);
+			} catch (Exception e) {
+				logger.error("Failed to handle status request " + exchange.getRequestURI(), e);
+			} finally {
+				exchange.close();
+			}
+		});
+		server.createContext("/metrics", exchange -> {
+			try {
+				if (!exchange.getRequestMethod().equals("GET"))
+					send(exchange, 405, "application/json", "{\"error\":\"method not allowed\"}");
+				else
+					send(exchange, 200, "text/plain; version=0.0.4; charset=utf-8",
+							QuickFfMetrics.getRegistry().writeText());
+			} catch (Exception e) {
+				logger.error("Failed to handle metrics request " + exchange.getRequestURI(), e);
+			} finally {
+				exchange.close();
+			}
+		});
+		server.start();
+		logger.info("Status endpoint listening on " + config.address + ":" + config.port);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		if (!exchange.getRequestMethod().equals("GET")) {
+			send(exchange, 405, "application/json", "{\"error\":\"method not allowed\"}");
+			return;
+		}
+
+		// Find endpoint
+		String path = exchange.getRequestURI().getPath();
+		while (path.endsWith("/"))
+			path = path.substring(0, path.length() - 1);
+		if (path.equals("/status")) {
+			send(exchange, 200, "application/json", gson.toJson(dispatcher.getStatus()));
+		} else if (path.startsWith("/status/jobs/")) {
+			JsonObject job = dispatcher.getJobStatus(path.substring("/status/jobs/".length()));
+			if (job == null)
+				send(exchange, 404, "application/json", "{\"error\":\"job not found\"}");
+			else
+				send(exchange, 200, "application/json", gson.toJson(job));
+		} else
+			send(exchange, 404, "application/json", "{\"error\":\"not found\"}");
+	}
+
+	private void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		byte[] data = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, data.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(data);
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+package usr.skyswimmer.quickff.tools.quickff.backend;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+
+import com.google.gson.JsonObject;
+
+import usr.skyswimmer.githubwebhooks.apps.GithubApp;
+import usr.skyswimmer.quickff.tools.quickff.BotIdentityCache;
+import usr.skyswimmer.quickff.tools.quickff.InstallationTokenCache;
+
+/**
+ *
+ * Default backend, talks to GitHub through the app that received the event
+ *
+ */
+public class GithubAppBackend implements IGithubBackend {
+
+	private InstallationTokenCache tokenCache = new InstallationTokenCache();
+	private BotIdentityCache botIdentities = new BotIdentityCache();
+
+	@Override
+	public CredentialsProvider getCredentials(GithubApp app, String installationId) throws IOException {
+		return new UsernamePasswordCredentialsProvider("x-access-token", tokenCache.getToken(app, installationId));
+	}
+
+	@Override
+	public PersonIdent getBotIdentity(GithubApp app) throws IOException {
+		return botIdentities.getIdentity(app);
+	}
+
+	@Override
+	public JsonObject installationApiRequest(GithubApp app, String installationId, String path, String method,
+			JsonObject payload) throws IOException {
+		return app.appInstallationApiRequest(installationId, path, method, payload);
+	}
+
+}
@@ -0,0 +1,54 @@
+package usr.skyswimmer.quickff.tools.quickff.backend;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.transport.CredentialsProvider;
+
+import com.google.gson.JsonObject;
+
+import usr.skyswimmer.githubwebhooks.apps.GithubApp;
+
+/**
+ *
+ * GitHub backend of the runner, provides git credentials, the bot identity
+ * and API access so runs can be pointed at something other than GitHub (eg.
+ * for benchmarks and load tests)
+ *
+ */
+public interface IGithubBackend {
+
+	/**
+	 * Creates git credentials for an installation
+	 *
+	 * @param app            GitHub app
+	 * @param installationId Installation ID
+	 * @return CredentialsProvider instance
+	 * @throws IOException If authenticating fails
+	 */
+	public CredentialsProvider getCredentials(GithubApp app, String installationId) throws IOException;
+
+	/**
+	 * Retrieves the commit identity of the app bot user
+	 *
+	 * @param app GitHub app
+	 * @return PersonIdent instance
+	 * @throws IOException If resolving the identity fails
+	 */
+	public PersonIdent getBotIdentity(GithubApp app) throws IOException;
+
+	/**
+	 * Sends an API request on behalf of an installation
+	 *
+	 * @param app            GitHub app
+	 * @param installationId Installation ID
+	 * @param path           API path
+	 * @param method         Request method
+	 * @param payload        Request payload
+	 * @return Response object
+	 * @throws IOException If the request fails
+	 */
+	public JsonObject installationApiRequest(GithubApp app, String installationId, String path, String method,
+			JsonObject payload) throws IOException;
+
+}
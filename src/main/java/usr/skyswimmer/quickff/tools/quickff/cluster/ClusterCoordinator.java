@@ -0,0 +1,277 @@
+package usr.skyswimmer.quickff.tools.quickff.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import usr.skyswimmer.quickff.tools.entities.ClusterConfig;
+import usr.skyswimmer.quickff.tools.entities.WebhookPushEventEntity;
+import usr.skyswimmer.quickff.tools.quickff.IWarmCacheSource;
+import usr.skyswimmer.quickff.tools.quickff.QuickFfDispatcher;
+import usr.skyswimmer.quickff.tools.quickff.RepositoryFetcher;
+import usr.skyswimmer.quickff.tools.quickff.metrics.QuickFfMetrics;
+import usr.skyswimmer.quicktoolsutils.io.HashUtils;
+
+/**
+ *
+ * Cluster coordinator, routes push events to the node owning their repository
+ * and accepts events forwarded by other nodes
+ *
+ * Forwarded events are signed with the cluster secret. Nodes never forward an
+ * event a second time, if membership views differ the receiving node runs the
+ * event itself. If the owner cannot be reached or does not know the GitHub app
+ * of the event yet, the receiving node runs the event itself.
+ *
+ * Endpoints:
+ * <ul>
+ * <li>POST /cluster/events - queues a forwarded push event</li>
+ * </ul>
+ *
+ */
+public class ClusterCoordinator implements IWarmCacheSource {
+
+	private static final String SIGNATURE_HEADER = "X-QuickFF-Signature";
+	private static final String NODE_HEADER = "X-QuickFF-Node";
+
+	private Logger logger = LogManager.getLogger("quickff");
+
+	private ClusterConfig config;
+	private QuickFfDispatcher dispatcher;
+	private File workingDir;
+	private ClusterMembership membership;
+	private volatile boolean joined;
+
+	private HttpServer server;
+	private HttpClient client;
+
+	public ClusterCoordinator(ClusterConfig config, QuickFfDispatcher dispatcher) {
+		this.config = config;
+		this.dispatcher = dispatcher;
+		this.client = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(config.forwardTimeoutMs)).build();
+	}
+
+	/**
+	 * Starts the cluster listener and joins the cluster, events are only
+	 * forwarded once the node joined
+	 *
+	 * @param workingDir Server working directory
+	 * @throws IOException If binding the port or joining fails
+	 */
+	public void start(File workingDir) throws IOException {
+		if (server != null)
+			return;
+		this.workingDir = workingDir;
+		membership = new ClusterMembership(config, new File(workingDir, "repository-temp"));
+		server = HttpServer.create(new InetSocketAddress(config.address, config.port), 0);
+		server.createContext("/cluster/events", exchange -> {
+			try {
+				handle(exchange);
+			} catch (Exception e) {
+				logger.error("Failed to handle cluster request " + exchange.getRequestURI(), e);
+			} finally {
+				exchange.close();
+			}
+		});
+		server.start();
+		logger.info("Cluster endpoint listening on " + config.address + ":" + config.port);
+		membership.start();
+		joined = true;
+	}
+
+	/**
+	 * Retrieves the cluster membership
+	 *
+	 * @return ClusterMembership instance or null if not started
+	 */
+	public ClusterMembership getMembership() {
+		return membership;
+	}
+
+	/**
+	 * Forwards a push event to the node owning its repository
+	 *
+	 * @param appId  ID of the GitHub app that received the event
+	 * @param branch Branch that was pushed to
+	 * @param push   Push event
+	 * @return Response of the owner, or null if the event needs to be run by this
+	 *         node
+	 */
+	public JsonObject forward(String appId, String branch, WebhookPushEventEntity push) {
+		if (!joined)
+			return null;
+		ClusterNode owner = membership.getOwner(push.repository.fullName);
+		if (owner == membership.getSelf())
+			return null;
+
+		// Build and sign
+		JsonObject payload = new JsonObject();
+		payload.addProperty("app", appId);
+		payload.addProperty("branch", branch);
+		payload.add("push", push.toJson());
+		byte[] body = payload.toString().getBytes(StandardCharsets.UTF_8);
+
+		// Send
+		try {
+			HttpRequest req = HttpRequest.newBuilder(URI.create(owner.url + "/cluster/events"))
+					.timeout(Duration.ofMillis(config.forwardTimeoutMs)).header("Content-Type", "application/json")
+					.header(NODE_HEADER, membership.getSelf().id).header(SIGNATURE_HEADER, sign(body))
+					.POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+			HttpResponse<String> res = client.send(req, HttpResponse.BodyHandlers.ofString());
+			if (res.statusCode() == 409) {
+				QuickFfMetrics.CLUSTER_EVENTS.inc("rejected");
+				logger.info("[" + push.repository.fullName + "] Owner " + owner.id
+						+ " does not know app " + appId + " yet, running push for " + branch + " locally");
+				return null;
+			}
+			if (res.statusCode() != 202)
+				throw new IOException("Owner responded with status " + res.statusCode());
+			JsonObject response = JsonParser.parseString(res.body()).getAsJsonObject();
+			QuickFfMetrics.CLUSTER_EVENTS.inc("forwarded");
+			logger.info("[" + push.repository.fullName + "] Forwarded push for " + branch + " to owner "
+					+ owner.id);
+			return response;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			logger.error("[" + push.repository.fullName + "] Failed to forward push for " + branch + " to owner "
+					+ owner.id + ", running it locally", e);
+		}
+		QuickFfMetrics.CLUSTER_EVENTS.inc("failed");
+		return null;
+	}
+
+	@Override
+	public File findWarmCache(String repository) {
+		// Prefer the most recently used cache of another node
+		if (!joined)
+			return null;
+		String dirName = HashUtils.sha256Hash(repository.getBytes(StandardCharsets.UTF_8));
+		File best = null;
+		for (ClusterNode node : membership.getNodes()) {
+			if (node == membership.getSelf() || node.cacheDir == null)
+				continue;
+			File repoDir = new File(node.cacheDir, dirName);
+			if (!RepositoryFetcher.isRepository(repoDir))
+				continue;
+			if (best == null || repoDir.lastModified() > best.lastModified())
+				best = repoDir;
+		}
+		return best;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		if (!exchange.getRequestMethod().equals("POST")) {
+			send(exchange, 405, "{\"error\":\"method not allowed\"}");
+			return;
+		}
+
+		// Verify
+		byte[] body;
+		try (InputStream in = exchange.getRequestBody()) {
+			body = in.readAllBytes();
+		}
+		String signature = exchange.getRequestHeaders().getFirst(SIGNATURE_HEADER);
+		if (signature == null || !MessageDigest.isEqual(signature.getBytes(StandardCharsets.UTF_8),
+				sign(body).getBytes(StandardCharsets.UTF_8))) {
+			logger.error("Rejected cluster request from " + exchange.getRemoteAddress() + ": invalid signature");
+			send(exchange, 401, "{\"error\":\"invalid signature\"}");
+			return;
+		}
+
+		// Read event
+		String appId = null;
+		String branch = null;
+		WebhookPushEventEntity push = null;
+		try (JsonReader reader = new JsonReader(
+				new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8))) {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+				case "app":
+					appId = reader.nextString();
+					break;
+				case "branch":
+					branch = reader.nextString();
+					break;
+				case "push":
+					push = new WebhookPushEventEntity();
+					push.loadFromStream(reader, "forward -> push");
+					break;
+				default:
+					reader.skipValue();
+					break;
+				}
+			}
+			reader.endObject();
+			if (appId == null || branch == null || push == null || push.repository == null
+					|| push.installation == null)
+				throw new IOException("Incomplete event");
+		} catch (Exception e) {
+			logger.error("Rejected cluster request from " + exchange.getRemoteAddress() + ": malformed event", e);
+			send(exchange, 400, "{\"error\":\"malformed event\"}");
+			return;
+		}
+
+		// Queue
+		String jobId = dispatcher.dispatchForwarded(workingDir, appId, branch, push);
+		if (jobId == null) {
+			send(exchange, 409, "{\"error\":\"app not known\"}");
+			return;
+		}
+		QuickFfMetrics.CLUSTER_EVENTS.inc("received");
+		logger.info("[" + push.repository.fullName + "] Received push for " + branch + " from node "
+				+ exchange.getRequestHeaders().getFirst(NODE_HEADER));
+		JsonObject response = new JsonObject();
+		response.addProperty("job", jobId);
+		response.addProperty("node", membership.getSelf().id);
+		send(exchange, 202, response.toString());
+	}
+
+	private String sign(byte[] body) throws IOException {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(config.secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+			StringBuilder hex = new StringBuilder("sha256=");
+			for (byte b : mac.doFinal(body))
+				hex.append(String.format("%02x", b));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException | InvalidKeyException e) {
+			throw new IOException("Failed to sign cluster request", e);
+		}
+	}
+
+	private void send(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] data = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, data.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(data);
+		}
+	}
+
+}
@@ -0,0 +1,180 @@
+package usr.skyswimmer.quickff.tools.quickff.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.gson.JsonParser;
+
+import usr.skyswimmer.quickff.tools.entities.ClusterConfig;
+import usr.skyswimmer.quickff.tools.quickff.metrics.QuickFfMetrics;
+import usr.skyswimmer.quicktoolsutils.tasks.async.AsyncTaskManager;
+
+/**
+ *
+ * Cluster membership based on a shared coordination directory, each node
+ * writes a heartbeat record to the nodes folder and reads the records of the
+ * other nodes
+ *
+ * Nodes whose heartbeat is older than the node timeout are left out of the
+ * hash ring, their records are kept so their caches can still be used to seed
+ * the new owners.
+ *
+ */
+public class ClusterMembership {
+
+	private Logger logger = LogManager.getLogger("quickff");
+
+	private ClusterConfig config;
+	private File nodesDir;
+	private ClusterNode self;
+
+	private volatile HashMap<String, ClusterNode> nodes = new HashMap<String, ClusterNode>();
+	private volatile TreeSet<String> liveNodes = new TreeSet<String>();
+	private volatile HashRing ring;
+
+	public ClusterMembership(ClusterConfig config, File cacheDir) {
+		this.config = config;
+		this.nodesDir = new File(config.directory, "nodes");
+		self = new ClusterNode();
+		self.id = config.nodeId;
+		self.url = config.advertiseUrl;
+		self.cacheDir = cacheDir.getAbsolutePath();
+	}
+
+	/**
+	 * Joins the cluster and starts sending heartbeats
+	 *
+	 * @throws IOException If the coordination directory cannot be written to
+	 */
+	public void start() throws IOException {
+		nodesDir.mkdirs();
+		writeHeartbeat();
+		refresh();
+		logger.info("Joined cluster as node " + self.id + " (" + self.url + ")");
+
+		// Heartbeat
+		AsyncTaskManager.runAsync(() -> {
+			while (true) {
+				try {
+					Thread.sleep(config.heartbeatIntervalMs);
+				} catch (InterruptedException e) {
+					break;
+				}
+				try {
+					writeHeartbeat();
+				} catch (IOException e) {
+					logger.error("Failed to write cluster heartbeat", e);
+				}
+				refresh();
+			}
+		});
+	}
+
+	/**
+	 * Retrieves the record of this node
+	 *
+	 * @return ClusterNode instance
+	 */
+	public ClusterNode getSelf() {
+		return self;
+	}
+
+	/**
+	 * Retrieves all known node records, including nodes that timed out
+	 *
+	 * @return List of ClusterNode instances
+	 */
+	public List<ClusterNode> getNodes() {
+		return new ArrayList<ClusterNode>(nodes.values());
+	}
+
+	/**
+	 * Retrieves the IDs of the live nodes
+	 *
+	 * @return Collection of node IDs
+	 */
+	public Collection<String> getLiveNodes() {
+		return liveNodes;
+	}
+
+	/**
+	 * Finds the node that owns a repository
+	 *
+	 * @param repository Repository name
+	 * @return ClusterNode instance, this node if no other node is live
+	 */
+	public ClusterNode getOwner(String repository) {
+		HashRing ring = this.ring;
+		String owner = ring == null ? null : ring.getOwner(repository);
+		if (owner == null || owner.equals(self.id))
+			return self;
+		ClusterNode node = nodes.get(owner);
+		return node == null ? self : node;
+	}
+
+	private void writeHeartbeat() throws IOException {
+		self.heartbeat = System.currentTimeMillis();
+		File tmp = new File(nodesDir, "." + self.id + ".json.tmp");
+		Files.write(tmp.toPath(), self.toJson().toString().getBytes(StandardCharsets.UTF_8));
+		Files.move(tmp.toPath(), new File(nodesDir, self.id + ".json").toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void refresh() {
+		// Read records
+		HashMap<String, ClusterNode> records = new HashMap<String, ClusterNode>();
+		File[] files = nodesDir.listFiles(t -> t.isFile() && !t.getName().startsWith(".")
+				&& t.getName().endsWith(".json"));
+		if (files != null) {
+			for (File file : files) {
+				try {
+					ClusterNode node = new ClusterNode();
+					node.loadFromJson(JsonParser.parseString(Files.readString(file.toPath())).getAsJsonObject(),
+							file.getName());
+					if (!node.id.equals(self.id))
+						records.put(node.id, node);
+				} catch (Exception e) {
+					logger.debug("Skipped unreadable cluster node record " + file.getName(), e);
+				}
+			}
+		}
+		records.put(self.id, self);
+
+		// Find live nodes
+		long now = System.currentTimeMillis();
+		TreeSet<String> live = new TreeSet<String>();
+		for (ClusterNode node : records.values()) {
+			if (node == self || now - node.heartbeat < config.nodeTimeoutMs)
+				live.add(node.id);
+		}
+		nodes = records;
+
+		// Rebuild ring on membership changes
+		if (!live.equals(liveNodes) || ring == null) {
+			for (String id : live) {
+				if (!liveNodes.contains(id) && !id.equals(self.id))
+					logger.info("Cluster node " + id + " joined (" + records.get(id).url + ")");
+			}
+			for (String id : liveNodes) {
+				if (!live.contains(id))
+					logger.info("Cluster node " + id + " left");
+			}
+			ring = new HashRing(live, config.virtualNodes);
+			liveNodes = live;
+			QuickFfMetrics.CLUSTER_NODES.set(live.size());
+			logger.info("Cluster membership: " + String.join(", ", live));
+		}
+	}
+
+}
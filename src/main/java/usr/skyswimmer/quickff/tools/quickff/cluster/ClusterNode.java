@@ -0,0 +1,50 @@
+package usr.skyswimmer.quickff.tools.quickff.cluster;
+
+import java.io.IOException;
+
+import com.google.gson.JsonObject;
+
+import usr.skyswimmer.quicktoolsutils.json.ISerializedJsonEntity;
+import usr.skyswimmer.quicktoolsutils.json.JsonUtils;
+
+/**
+ *
+ * Cluster node record, written to the coordination directory by each node
+ * with every heartbeat
+ *
+ */
+public class ClusterNode implements ISerializedJsonEntity {
+
+	public String id;
+	public String url;
+
+	// Repository cache directory of the node, used to seed caches when ownership moves
+	public String cacheDir;
+
+	public long heartbeat;
+
+	@Override
+	public void loadFromJson(JsonObject source, String scope) throws IOException {
+		id = JsonUtils.getStringOrError(scope + " -> id", JsonUtils.getElementOrError(scope, source, "id"));
+		url = JsonUtils.getStringOrError(scope + " -> url", JsonUtils.getElementOrError(scope, source, "url"));
+		if (source.has("cacheDir"))
+			cacheDir = JsonUtils.getStringOrError(scope + " -> cacheDir", source.get("cacheDir"));
+		heartbeat = JsonUtils.getElementOrError(scope, source, "heartbeat").getAsLong();
+	}
+
+	/**
+	 * Creates the JSON record of the node
+	 *
+	 * @return JsonObject instance
+	 */
+	public JsonObject toJson() {
+		JsonObject res = new JsonObject();
+		res.addProperty("id", id);
+		res.addProperty("url", url);
+		if (cacheDir != null)
+			res.addProperty("cacheDir", cacheDir);
+		res.addProperty("heartbeat", heartbeat);
+		return res;
+	}
+
+}
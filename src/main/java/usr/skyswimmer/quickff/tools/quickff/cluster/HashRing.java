@@ -0,0 +1,77 @@
+package usr.skyswimmer.quickff.tools.quickff.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ *
+ * Consistent hash ring, each node occupies a number of points on the ring and
+ * a key belongs to the first node at or after its own point
+ *
+ * Adding or removing a node only moves the keys of the points it gains or
+ * loses, all other keys keep their owner.
+ *
+ */
+public class HashRing {
+
+	private TreeMap<Long, String> points = new TreeMap<Long, String>();
+
+	/**
+	 * Builds a ring
+	 *
+	 * @param nodes        Node IDs
+	 * @param virtualNodes Points per node
+	 */
+	public HashRing(Collection<String> nodes, int virtualNodes) {
+		for (String node : nodes) {
+			for (int i = 0; i < virtualNodes; i++) {
+				// Lowest node ID wins collisions so every node builds the same ring
+				long point = hash(node + "#" + i);
+				String current = points.get(point);
+				if (current == null || node.compareTo(current) < 0)
+					points.put(point, node);
+			}
+		}
+	}
+
+	/**
+	 * Finds the owner of a key
+	 *
+	 * @param key Key to look up
+	 * @return Node ID or null if the ring is empty
+	 */
+	public String getOwner(String key) {
+		if (points.isEmpty())
+			return null;
+		Map.Entry<Long, String> ent = points.ceilingEntry(hash(key));
+		if (ent == null)
+			ent = points.firstEntry();
+		return ent.getValue();
+	}
+
+	/**
+	 * Checks if the ring has no nodes
+	 *
+	 * @return True if empty, false otherwise
+	 */
+	public boolean isEmpty() {
+		return points.isEmpty();
+	}
+
+	private static long hash(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+			long res = 0;
+			for (int i = 0; i < 8; i++)
+				res = (res << 8) | (digest[i] & 0xff);
+			return res;
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
@@ -0,0 +1,18 @@
+package usr.skyswimmer.quickff.tools.quickff.eviction;
+
+/**
+ *
+ * Usage information of a cached repository
+ *
+ */
+public interface ICacheEntry {
+
+	public String getName();
+
+	public long getLastUsed();
+
+	public long getUseCount();
+
+	public long getDiskUsage();
+
+}
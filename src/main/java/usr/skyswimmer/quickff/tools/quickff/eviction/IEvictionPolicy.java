@@ -0,0 +1,38 @@
+package usr.skyswimmer.quickff.tools.quickff.eviction;
+
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ *
+ * Cache eviction policy, orders cached repositories so that the entries to
+ * evict first are sorted first
+ *
+ */
+public interface IEvictionPolicy extends Comparator<ICacheEntry> {
+
+	public String getName();
+
+	/**
+	 * Creates an eviction policy by name
+	 *
+	 * @param name Policy name (lru or lfu)
+	 * @return IEvictionPolicy instance
+	 * @throws IllegalArgumentException If the policy is not recognized
+	 */
+	public static IEvictionPolicy forName(String name) {
+		switch (name.toLowerCase(Locale.ROOT)) {
+
+		case "lru":
+			return new LruEvictionPolicy();
+
+		case "lfu":
+			return new LfuEvictionPolicy();
+
+		default:
+			throw new IllegalArgumentException("Unknown eviction policy: " + name);
+
+		}
+	}
+
+}
@@ -0,0 +1,24 @@
+package usr.skyswimmer.quickff.tools.quickff.eviction;
+
+/**
+ *
+ * Least-frequently-used eviction, the least used repository goes first, ties
+ * are broken by last use time
+ *
+ */
+public class LfuEvictionPolicy implements IEvictionPolicy {
+
+	@Override
+	public String getName() {
+		return "lfu";
+	}
+
+	@Override
+	public int compare(ICacheEntry a, ICacheEntry b) {
+		int res = Long.compare(a.getUseCount(), b.getUseCount());
+		if (res == 0)
+			res = Long.compare(a.getLastUsed(), b.getLastUsed());
+		return res;
+	}
+
+}
@@ -0,0 +1,20 @@
+package usr.skyswimmer.quickff.tools.quickff.eviction;
+
+/**
+ *
+ * Least-recently-used eviction, the longest idle repository goes first
+ *
+ */
+public class LruEvictionPolicy implements IEvictionPolicy {
+
+	@Override
+	public String getName() {
+		return "lru";
+	}
+
+	@Override
+	public int compare(ICacheEntry a, ICacheEntry b) {
+		return Long.compare(a.getLastUsed(), b.getLastUsed());
+	}
+
+}
@@ -0,0 +1,56 @@
+package usr.skyswimmer.quickff.tools.quickff.metrics;
+
+import java.util.List;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ *
+ * Monotonically increasing counter
+ *
+ */
+public class Counter extends Metric<DoubleAdder> {
+
+	public Counter(String name, String help, String... labelNames) {
+		super(name, help, labelNames);
+	}
+
+	@Override
+	public String getType() {
+		return "counter";
+	}
+
+	/**
+	 * Increments the counter by one
+	 *
+	 * @param labelValues Label values
+	 */
+	public void inc(String... labelValues) {
+		add(1, labelValues);
+	}
+
+	/**
+	 * Increments the counter
+	 *
+	 * @param amount      Amount to add, must not be negative
+	 * @param labelValues Label values
+	 */
+	public void add(double amount, String... labelValues) {
+		getOrCreate(labelValues, t -> new DoubleAdder()).add(amount);
+	}
+
+	/**
+	 * Retrieves the current value
+	 *
+	 * @param labelValues Label values
+	 * @return Counter value
+	 */
+	public double get(String... labelValues) {
+		return getOrCreate(labelValues, t -> new DoubleAdder()).sum();
+	}
+
+	@Override
+	protected void writeValue(StringBuilder output, List<String> labelValues, DoubleAdder value) {
+		writeSample(output, "", labelValues, null, null, value.sum());
+	}
+
+}
@@ -0,0 +1,37 @@
+package usr.skyswimmer.quickff.tools.quickff.metrics;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Gauge holding the last value that was set
+ *
+ */
+public class Gauge extends Metric<AtomicLong> {
+
+	public Gauge(String name, String help, String... labelNames) {
+		super(name, help, labelNames);
+	}
+
+	@Override
+	public String getType() {
+		return "gauge";
+	}
+
+	/**
+	 * Sets the gauge value
+	 *
+	 * @param value       New value
+	 * @param labelValues Label values
+	 */
+	public void set(double value, String... labelValues) {
+		getOrCreate(labelValues, t -> new AtomicLong()).set(Double.doubleToRawLongBits(value));
+	}
+
+	@Override
+	protected void writeValue(StringBuilder output, List<String> labelValues, AtomicLong value) {
+		writeSample(output, "", labelValues, null, null, Double.longBitsToDouble(value.get()));
+	}
+
+}
@@ -0,0 +1,82 @@
+package usr.skyswimmer.quickff.tools.quickff.metrics;
+
+import java.util.List;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * Histogram with fixed buckets, bucket counts are cumulative when written
+ *
+ */
+public class Histogram extends Metric<Histogram.Buckets> {
+
+	// Default buckets in seconds, from a few milliseconds to a slow clone
+	public static final double[] DEFAULT_BUCKETS = new double[] { 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5,
+			5, 10, 30, 60, 120 };
+
+	private double[] bounds;
+
+	public static class Buckets {
+		private LongAdder[] counts;
+		private LongAdder count = new LongAdder();
+		private DoubleAdder sum = new DoubleAdder();
+
+		private Buckets(int size) {
+			counts = new LongAdder[size];
+			for (int i = 0; i < size; i++)
+				counts[i] = new LongAdder();
+		}
+	}
+
+	public Histogram(String name, String help, double[] bounds, String... labelNames) {
+		super(name, help, labelNames);
+		this.bounds = bounds;
+	}
+
+	@Override
+	public String getType() {
+		return "histogram";
+	}
+
+	/**
+	 * Records an observation
+	 *
+	 * @param value       Observed value
+	 * @param labelValues Label values
+	 */
+	public void observe(double value, String... labelValues) {
+		Buckets buckets = getOrCreate(labelValues, t -> new Buckets(bounds.length));
+		for (int i = 0; i < bounds.length; i++) {
+			if (value <= bounds[i]) {
+				buckets.counts[i].increment();
+				break;
+			}
+		}
+		buckets.count.increment();
+		buckets.sum.add(value);
+	}
+
+	/**
+	 * Records the time elapsed since a System.nanoTime() timestamp, in seconds
+	 *
+	 * @param startNanos  Start timestamp
+	 * @param labelValues Label values
+	 */
+	public void observeSince(long startNanos, String... labelValues) {
+		observe((System.nanoTime() - startNanos) / 1000000000d, labelValues);
+	}
+
+	@Override
+	protected void writeValue(StringBuilder output, List<String> labelValues, Buckets value) {
+		long cumulative = 0;
+		for (int i = 0; i < bounds.length; i++) {
+			cumulative += value.counts[i].sum();
+			writeSample(output, "_bucket", labelValues, "le", formatValue(bounds[i]), cumulative);
+		}
+		writeSample(output, "_bucket", labelValues, "le", "+Inf", value.count.sum());
+		writeSample(output, "_sum", labelValues, null, null, value.sum.sum());
+		writeSample(output, "_count", labelValues, null, null, value.count.sum());
+	}
+
+}
@@ -0,0 +1,118 @@
+package usr.skyswimmer.quickff.tools.quickff.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ *
+ * Base of all metrics, holds one value per combination of label values
+ *
+ * @param <T> Value type
+ */
+public abstract class Metric<T> {
+
+	private String name;
+	private String help;
+	private String[] labelNames;
+
+	private ConcurrentHashMap<List<String>, T> values = new ConcurrentHashMap<List<String>, T>();
+
+	protected Metric(String name, String help, String[] labelNames) {
+		this.name = name;
+		this.help = help;
+		this.labelNames = labelNames;
+	}
+
+	/**
+	 * Retrieves the metric name
+	 *
+	 * @return Metric name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Retrieves the Prometheus metric type
+	 *
+	 * @return Metric type name
+	 */
+	public abstract String getType();
+
+	/**
+	 * Removes the value of a label combination
+	 *
+	 * @param labelValues Label values
+	 */
+	public void remove(String... labelValues) {
+		values.remove(Arrays.asList(labelValues));
+	}
+
+	/**
+	 * Removes all values
+	 */
+	public void clear() {
+		values.clear();
+	}
+
+	protected T getOrCreate(String[] labelValues, Function<List<String>, T> creator) {
+		if (labelValues.length != labelNames.length)
+			throw new IllegalArgumentException("Metric " + name + " expects " + labelNames.length + " labels");
+		return values.computeIfAbsent(Arrays.asList(labelValues), creator);
+	}
+
+	protected Map<List<String>, T> getValues() {
+		return values;
+	}
+
+	/**
+	 * Writes the metric in Prometheus text format
+	 *
+	 * @param output Output builder
+	 */
+	public void write(StringBuilder output) {
+		output.append("# HELP ").append(name).append(" ").append(help.replace("\\", "\\\\").replace("\n", "\\n"))
+				.append("\n");
+		output.append("# TYPE ").append(name).append(" ").append(getType()).append("\n");
+		for (Map.Entry<List<String>, T> ent : values.entrySet())
+			writeValue(output, ent.getKey(), ent.getValue());
+	}
+
+	protected abstract void writeValue(StringBuilder output, List<String> labelValues, T value);
+
+	protected void writeSample(StringBuilder output, String suffix, List<String> labelValues, String extraLabel,
+			String extraValue, double value) {
+		output.append(name).append(suffix);
+		if (!labelValues.isEmpty() || extraLabel != null) {
+			output.append("{");
+			for (int i = 0; i < labelValues.size(); i++) {
+				if (i != 0)
+					output.append(",");
+				output.append(labelNames[i]).append("=\"").append(escape(labelValues.get(i))).append("\"");
+			}
+			if (extraLabel != null) {
+				if (!labelValues.isEmpty())
+					output.append(",");
+				output.append(extraLabel).append("=\"").append(extraValue).append("\"");
+			}
+			output.append("}");
+		}
+		output.append(" ").append(formatValue(value)).append("\n");
+	}
+
+	protected static String formatValue(double value) {
+		if (Double.isInfinite(value))
+			return value > 0 ? "+Inf" : "-Inf";
+		if (value == Math.rint(value) && Math.abs(value) < 1e15)
+			return Long.toString((long) value);
+		return Double.toString(value);
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+}
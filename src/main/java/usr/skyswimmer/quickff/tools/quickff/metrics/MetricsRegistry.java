@@ -0,0 +1,58 @@
+package usr.skyswimmer.quickff.tools.quickff.metrics;
+
+import java.util.ArrayList;
+
+/**
+ *
+ * Metrics registry, writes all registered metrics in the Prometheus text
+ * exposition format
+ *
+ * Collectors are run before each scrape to refresh gauges that are derived
+ * from other state, such as queue depths.
+ *
+ */
+public class MetricsRegistry {
+
+	private ArrayList<Metric<?>> metrics = new ArrayList<Metric<?>>();
+	private ArrayList<Runnable> collectors = new ArrayList<Runnable>();
+
+	/**
+	 * Registers a metric
+	 *
+	 * @param <T>    Metric type
+	 * @param metric Metric to register
+	 * @return The registered metric
+	 */
+	public synchronized <T extends Metric<?>> T register(T metric) {
+		for (Metric<?> existing : metrics) {
+			if (existing.getName().equals(metric.getName()))
+				throw new IllegalArgumentException("Metric " + metric.getName() + " is already registered");
+		}
+		metrics.add(metric);
+		return metric;
+	}
+
+	/**
+	 * Adds a collector that is run before each scrape
+	 *
+	 * @param collector Collector to add
+	 */
+	public synchronized void addCollector(Runnable collector) {
+		collectors.add(collector);
+	}
+
+	/**
+	 * Writes all metrics in Prometheus text format
+	 *
+	 * @return Metrics text
+	 */
+	public synchronized String writeText() {
+		for (Runnable collector : collectors)
+			collector.run();
+		StringBuilder output = new StringBuilder();
+		for (Metric<?> metric : metrics)
+			metric.write(output);
+		return output.toString();
+	}
+
+}
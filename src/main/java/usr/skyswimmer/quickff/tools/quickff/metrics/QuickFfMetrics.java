@@ -0,0 +1,92 @@
+package usr.skyswimmer.quickff.tools.quickff.metrics;
+
+/**
+ *
+ * Metrics of the QuickFF server, shared by the dispatcher, runner and caches
+ *
+ */
+public class QuickFfMetrics {
+
+	private static final MetricsRegistry registry = new MetricsRegistry();
+	private static final String[] CACHES = new String[] { "repository", "commit", "config", "token",
+			"bot_identity" };
+
+	// Stages
+	public static final Histogram STAGE_DURATION = registry.register(new Histogram("quickff_stage_duration_seconds",
+			"Duration of runner stages (token, open, seed, fetch, config, ancestry, merge, push, api)",
+			Histogram.DEFAULT_BUCKETS, "stage"));
+	public static final Histogram RUN_DURATION = registry.register(new Histogram("quickff_run_duration_seconds",
+			"Duration of complete runs, including lock waits", Histogram.DEFAULT_BUCKETS));
+	public static final Histogram QUEUE_TIME = registry.register(new Histogram("quickff_queue_time_seconds",
+			"Time jobs spent queued before a worker picked them up", Histogram.DEFAULT_BUCKETS));
+
+	// Results
+	public static final Counter RUNS = registry.register(new Counter("quickff_runs_total",
+			"Runs by result (success, failure)", "result"));
+	public static final Counter BRANCH_UPDATES = registry.register(new Counter("quickff_branch_updates_total",
+			"Target branch outcomes (fast_forward, merge, up_to_date, diverged, failed)", "result"));
+	public static final Counter FAILURES = registry.register(new Counter("quickff_failures_total",
+			"Errors by stage (plan, push, run)", "stage"));
+
+	// Queues and locks
+	public static final Gauge QUEUE_DEPTH = registry.register(new Gauge("quickff_queue_depth",
+			"Pending jobs per repository", "repository"));
+	public static final Gauge JOBS_RUNNING = registry.register(new Gauge("quickff_jobs_running",
+			"Jobs currently running"));
+	public static final Gauge LOCK_WAIT = registry.register(new Gauge("quickff_repository_lock_wait_seconds",
+			"Time the last run of a repository waited for its repository lock", "repository"));
+	public static final Counter LOCK_WAIT_TOTAL = registry.register(new Counter(
+			"quickff_repository_lock_wait_seconds_total", "Total time runs waited for repository locks",
+			"repository"));
+
+	// Caches
+	public static final Counter CACHE_REQUESTS = registry.register(new Counter("quickff_cache_requests_total",
+			"Cache lookups by cache (repository, commit, config, token, bot_identity) and result (hit, miss)",
+			"cache", "result"));
+	public static final Gauge CACHE_HIT_RATIO = registry.register(new Gauge("quickff_cache_hit_ratio",
+			"Ratio of cache lookups that were hits", "cache"));
+
+	// Maintenance
+	public static final Counter MAINTENANCE_RUNS = registry.register(new Counter("quickff_maintenance_runs_total",
+			"Repository maintenance runs by result (completed, cancelled, failed)", "result"));
+	public static final Histogram MAINTENANCE_DURATION = registry.register(new Histogram(
+			"quickff_maintenance_duration_seconds", "Duration of repository maintenance runs",
+			Histogram.DEFAULT_BUCKETS));
+
+	// Cluster
+	public static final Counter CLUSTER_EVENTS = registry.register(new Counter("quickff_cluster_events_total",
+			"Events routed between cluster nodes (forwarded, received, rejected, failed)", "result"));
+	public static final Gauge CLUSTER_NODES = registry.register(new Gauge("quickff_cluster_nodes",
+			"Live nodes of the cluster"));
+
+	static {
+		registry.addCollector(() -> {
+			for (String cache : CACHES) {
+				double hits = CACHE_REQUESTS.get(cache, "hit");
+				double total = hits + CACHE_REQUESTS.get(cache, "miss");
+				if (total > 0)
+					CACHE_HIT_RATIO.set(hits / total, cache);
+			}
+		});
+	}
+
+	/**
+	 * Retrieves the metrics registry
+	 *
+	 * @return MetricsRegistry instance
+	 */
+	public static MetricsRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Records a cache lookup
+	 *
+	 * @param cache Cache name
+	 * @param hit   True if the lookup was a hit
+	 */
+	public static void cacheLookup(String cache, boolean hit) {
+		CACHE_REQUESTS.inc(cache, hit ? "hit" : "miss");
+	}
+
+}